@@ -0,0 +1,119 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.ChannelBatchWriter;
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.util.ApkSignatureVerifier;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.FileChannelDataSource;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.util.MappedByteBufferDataSource;
+import com.branch.v2.read.zip.ZipFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifying the v2 digests of a channel APK: in full, and against the digests of its verified
+ * base APK. {@code parallelism} is the number of threads digesting chunks.
+ * <p>
+ * <p>{@code verifyMapped} reads the channel APK through one memory mapping shared by all digest
+ * threads, the others through positional reads of a {@link FileChannelDataSource} copying each
+ * chunk into the heap.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ApkSignatureVerifierBenchmark {
+
+    @Param({"64", "512"})
+    public int sizeMb;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private File mBaseApkFile;
+    private File mChannelApkFile;
+    private RandomAccessFile mChannelApk;
+    private FileChannelDataSource mChannelApkDataSource;
+    private MappedByteBufferDataSource mMappedChannelApkDataSource;
+    private ForkJoinPool mPool;
+    private ApkSignatureVerifier mVerifier;
+
+    @Setup
+    public void setUp()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        Log.setDebug(false);
+        mBaseApkFile = new ApkGenerator()
+                .setTotalSize(sizeMb * 1024L * 1024)
+                .setEntryCount(100)
+                .setV2Digests(true)
+                .generate();
+        ChannelBatchWriter writer = new ChannelBatchWriter(mBaseApkFile.getPath());
+        try {
+            mChannelApkFile = writer.writeChannel(
+                    mBaseApkFile.getParent() + File.separator, "huawei");
+        } finally {
+            writer.close();
+        }
+        mChannelApk = new RandomAccessFile(mChannelApkFile, "r");
+        mChannelApkDataSource = new FileChannelDataSource(mChannelApk.getChannel());
+        mMappedChannelApkDataSource = new MappedByteBufferDataSource(
+                mChannelApk.getChannel(), FileChannel.MapMode.READ_ONLY);
+
+        mPool = new ForkJoinPool(parallelism);
+        mVerifier = new ApkSignatureVerifier(mPool);
+        RandomAccessFile baseApk = new RandomAccessFile(mBaseApkFile, "r");
+        try {
+            if (!mVerifier.verifyBase(new FileChannelDataSource(baseApk.getChannel()))) {
+                throw new IllegalStateException("Generated base APK fails verification");
+            }
+        } finally {
+            baseApk.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mPool.shutdown();
+        mChannelApk.close();
+        mChannelApkFile.delete();
+        mBaseApkFile.delete();
+    }
+
+    @Benchmark
+    public boolean verify()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        return mVerifier.verify(mChannelApkDataSource);
+    }
+
+    @Benchmark
+    public boolean verifyMapped()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        return mVerifier.verify(mMappedChannelApkDataSource);
+    }
+
+    @Benchmark
+    public boolean verifyChannelApk()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        return mVerifier.verifyChannelApk(mChannelApkDataSource);
+    }
+}
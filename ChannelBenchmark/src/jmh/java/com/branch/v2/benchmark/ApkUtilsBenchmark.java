@@ -0,0 +1,96 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.DataSource;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Pair;
+import com.branch.v2.read.zip.ZipFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of the ZIP sections and of the APK Signing Block.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ApkUtilsBenchmark {
+
+    private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+
+    private File mApkFile;
+    private RandomAccessFile mFile;
+    private DataSource mApk;
+    private ApkUtils.ZipSections mZipSections;
+    private DataSource mApkSigningBlock;
+    private ByteBuffer mApkSigningBlockBuffer;
+
+    @Setup
+    public void setUp()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        mApkFile = new ApkGenerator().generate();
+        mFile = new RandomAccessFile(mApkFile, "r");
+        mApk = DataSources.asDataSource(mFile);
+        mZipSections = ApkUtils.findZipSections(mApk);
+        mApkSigningBlock = ApkUtils.findApkSigningBlock(mApk, mZipSections).getFirst();
+        mApkSigningBlockBuffer = mApkSigningBlock.getByteBuffer(0, (int) mApkSigningBlock.size());
+        mApkSigningBlockBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFile.close();
+        mApkFile.delete();
+    }
+
+    @Benchmark
+    public ApkUtils.ZipSections findZipSections() throws IOException, ZipFormatException {
+        return ApkUtils.findZipSections(mApk);
+    }
+
+    @Benchmark
+    public Pair<DataSource, Long> findApkSigningBlock()
+            throws IOException, ApkUtils.SignatureNotFoundException {
+        return ApkUtils.findApkSigningBlock(mApk, mZipSections);
+    }
+
+    @Benchmark
+    public HashMap<Integer, ByteBuffer> findApkSignatureSchemeV2Block()
+            throws ApkUtils.SignatureNotFoundException {
+        return ApkUtils.findApkSignatureSchemeV2Block(mApkSigningBlockBuffer);
+    }
+
+    @Benchmark
+    public ByteBuffer findApkSigningBlockValue() throws ApkUtils.SignatureNotFoundException {
+        return ApkUtils.findApkSigningBlockValue(
+                mApkSigningBlockBuffer, APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+    }
+
+    @Benchmark
+    public ByteBuffer findApkSigningBlockValueFromFile()
+            throws IOException, ApkUtils.SignatureNotFoundException {
+        return ApkUtils.findApkSigningBlockValue(
+                mApkSigningBlock, APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+    }
+}
@@ -0,0 +1,109 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.model.ChannelPayload;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Channel payload encode/decode with the current codec against the Gson based one it replaced.
+ * <p>
+ * <p>The {@code cold*} benchmarks run once per fresh JVM, so they include class loading and, for
+ * Gson, its reflection warm-up: the cost an app pays reading its channel on cold start.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ChannelModelBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String PAYLOAD =
+            "{\"channelName\":\"huawei\",\"buildId\":2031,\"campaign\":\"spring\",\"abBucket\":3}";
+
+    private final ByteBuffer mPayload = ByteBuffer.wrap(PAYLOAD.getBytes(UTF_8));
+    private final String mGsonPayload = PAYLOAD;
+
+    /**
+     * The Gson based codec ChannelModel used before.
+     */
+    static class GsonChannelModel {
+        private String channelName;
+
+        GsonChannelModel(String channelName) {
+            this.channelName = channelName;
+        }
+
+        byte[] getBytes() {
+            Gson gson = new Gson();
+            return gson.toJson(this).getBytes();
+        }
+
+        static GsonChannelModel fromGson(String channelGson) {
+            Gson gson = new Gson();
+            return gson.fromJson(channelGson, new TypeToken<GsonChannelModel>() {
+            }.getType());
+        }
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return new ChannelModel("huawei").getBytes();
+    }
+
+    @Benchmark
+    public byte[] encodeGson() {
+        return new GsonChannelModel("huawei").getBytes();
+    }
+
+    @Benchmark
+    public ChannelModel decode() {
+        return ChannelModel.fromBytes(mPayload.duplicate());
+    }
+
+    @Benchmark
+    public GsonChannelModel decodeGson() {
+        return GsonChannelModel.fromGson(mGsonPayload);
+    }
+
+    @Benchmark
+    public String decodeSingleKey() {
+        return new ChannelPayload(mPayload.duplicate()).getString("campaign");
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(20)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public ChannelModel coldDecode() {
+        return ChannelModel.fromBytes(mPayload.duplicate());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Fork(20)
+    @Warmup(iterations = 0)
+    @Measurement(iterations = 1)
+    public GsonChannelModel coldDecodeGson() {
+        return GsonChannelModel.fromGson(mGsonPayload);
+    }
+}
@@ -0,0 +1,79 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.ChannelBatchWriter;
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import com.branch.v2.read.ChannelReadCache;
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.zip.ZipFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the channel of a channel APK.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ChannelReadBenchmark {
+
+    private File mBaseApkFile;
+    private File mChannelApkFile;
+    private String mChannelApkPath;
+    private ChannelReadCache mCache;
+
+    @Setup
+    public void setUp()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        Log.setDebug(false);
+        mBaseApkFile = new ApkGenerator().generate();
+        ChannelBatchWriter writer = new ChannelBatchWriter(mBaseApkFile.getPath());
+        try {
+            mChannelApkFile = writer.writeChannel(
+                    mBaseApkFile.getParent() + File.separator, "huawei");
+        } finally {
+            writer.close();
+        }
+        mChannelApkPath = mChannelApkFile.getPath();
+        mCache = new ChannelReadCache(ChannelReadCache.DEFAULT_MAX_ENTRIES);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mChannelApkFile.delete();
+        mBaseApkFile.delete();
+    }
+
+    @Benchmark
+    public ChannelModel getChannel() {
+        return ChannelRead.getChannel(mChannelApkPath);
+    }
+
+    @Benchmark
+    public String getChannelPayloadChannelName() {
+        return ChannelRead.getChannelPayload(mChannelApkPath).getChannelName();
+    }
+
+    @Benchmark
+    public ChannelModel getChannelCached() {
+        return mCache.getChannel(mChannelApkPath);
+    }
+}
@@ -0,0 +1,163 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.ChannelBatchWriter;
+import com.branch.v2.ChannelStreamer;
+import com.branch.v2.ChannelWrite;
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.AsyncDataSink;
+import com.branch.v2.read.util.DataSinks;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.util.Pair;
+import com.branch.v2.read.zip.ZipFormatException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing channel APKs from base APKs of 1 MB to 2 GB, one channel at a time with and without
+ * re-parsing the base APK, and a batch of channels on the worker pool. The {@code stream*}
+ * benchmarks write through the {@code DataSink} path, with reads and writes on one thread or
+ * overlapped by an {@link AsyncDataSink}, or through a {@link ChannelStreamer} transferring the
+ * unchanged regions. {@code streamChannelRange} streams the last MB of the channel APK, as for a
+ * resumed download, and should not depend on {@code sizeMb}.
+ * <p>
+ * <p>Use {@code -p sizeMb=...} to run a subset of the sizes, the 2 GB fixture alone needs 2 GB
+ * of free space for the base APK plus as much per channel written.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ChannelWriteBenchmark {
+
+    private static final int BATCH_CHANNEL_COUNT = 16;
+    private static final long RANGE_SIZE = 1024 * 1024;
+
+    @Param({"1", "64", "512", "2048"})
+    public int sizeMb;
+
+    private File mBaseApkFile;
+    private File mOutputDir;
+    private String mOutputDirPath;
+    private ChannelBatchWriter mWriter;
+    private ChannelStreamer mStreamer;
+    private ChannelModel mChannel;
+    private List<ChannelModel> mBatchChannels;
+
+    @Setup
+    public void setUp()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        Log.setDebug(false);
+        mBaseApkFile = new ApkGenerator().setTotalSize(sizeMb * 1024L * 1024L).generate();
+        mOutputDir = Files.createTempDirectory("channel-benchmark-").toFile();
+        mOutputDirPath = mOutputDir.getPath() + File.separator;
+        mWriter = new ChannelBatchWriter(mBaseApkFile.getPath());
+        mStreamer = new ChannelStreamer(mWriter);
+        mChannel = new ChannelModel("huawei");
+        mBatchChannels = new ArrayList<>();
+        for (int i = 0; i < BATCH_CHANNEL_COUNT; i++) {
+            mBatchChannels.add(new ChannelModel("channel" + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        mWriter.close();
+        File[] outputs = mOutputDir.listFiles();
+        if (outputs != null) {
+            for (File output : outputs) {
+                output.delete();
+            }
+        }
+        mOutputDir.delete();
+        mBaseApkFile.delete();
+    }
+
+    @Benchmark
+    public void writeChannel()
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        ChannelWrite.writeChannel(mBaseApkFile.getPath(), mOutputDirPath, "huawei");
+    }
+
+    @Benchmark
+    public File batchWriteChannel() throws IOException {
+        return mWriter.writeChannel(mOutputDirPath, "huawei");
+    }
+
+    @Benchmark
+    public void streamChannel() throws IOException {
+        RandomAccessFile out = new RandomAccessFile(mOutputDirPath + "stream.apk", "rw");
+        try {
+            out.setLength(0);
+            mWriter.writeChannel(DataSinks.asDataSink(out), "huawei");
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public void streamChannelAsync() throws IOException {
+        RandomAccessFile out = new RandomAccessFile(mOutputDirPath + "stream.apk", "rw");
+        try {
+            out.setLength(0);
+            AsyncDataSink sink = new AsyncDataSink(DataSinks.asDataSink(out));
+            try {
+                mWriter.writeChannel(sink, "huawei");
+            } finally {
+                sink.close();
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public long streamChannelTransfer() throws IOException {
+        OutputStream out = new FileOutputStream(mOutputDirPath + "stream.apk");
+        try {
+            return mStreamer.stream(mChannel, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public void streamChannelRange() throws IOException {
+        long size = Math.min(RANGE_SIZE, mStreamer.getContentLength(mChannel));
+        OutputStream out = new FileOutputStream(mOutputDirPath + "stream.apk");
+        try {
+            mStreamer.stream(mChannel, mStreamer.getContentLength(mChannel) - size, size, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Benchmark
+    public List<Pair<ChannelModel, Exception>> batchWriteChannels() {
+        return mWriter.writeChannels(
+                mOutputDirPath, mBatchChannels, ChannelBatchWriter.getDefaultWorkerCount());
+    }
+}
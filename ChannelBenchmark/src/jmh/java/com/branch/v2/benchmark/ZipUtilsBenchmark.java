@@ -0,0 +1,102 @@
+package com.branch.v2.benchmark;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.util.DataSource;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Pair;
+import com.branch.v2.read.zip.ZipUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ZIP End of Central Directory search, without comment (the fast path) and with comments that
+ * force the 64 KB backwards scan. The {@code scan*} benchmarks compare the in-memory signature
+ * scan with the byte-at-a-time loop it replaced.
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ZipUtilsBenchmark {
+
+    @Param({"0", "1024", "65535"})
+    public int commentLength;
+
+    private File mApkFile;
+    private RandomAccessFile mFile;
+    private DataSource mApk;
+    private ByteBuffer mEocdSearchBuffer;
+
+    @Setup
+    public void setUp() throws IOException {
+        mApkFile = new ApkGenerator().setCommentLength(commentLength).generate();
+        mFile = new RandomAccessFile(mApkFile, "r");
+        mApk = DataSources.asDataSource(mFile);
+        int searchSize = (int) Math.min(mApk.size(), 22 + 65535);
+        mEocdSearchBuffer = mApk.getByteBuffer(mApk.size() - searchSize, searchSize);
+        mEocdSearchBuffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        mFile.close();
+        mApkFile.delete();
+    }
+
+    @Benchmark
+    public Pair<ByteBuffer, Long> findZipEndOfCentralDirectoryRecord() throws IOException {
+        return ZipUtils.findZipEndOfCentralDirectoryRecord(mApk);
+    }
+
+    @Benchmark
+    public int scanEndOfCentralDirectoryRecord() {
+        return ZipUtils.findZipEndOfCentralDirectoryRecord(mEocdSearchBuffer);
+    }
+
+    @Benchmark
+    public int scanEndOfCentralDirectoryRecordByteAtATime() {
+        return findZipEndOfCentralDirectoryRecordByteAtATime(mEocdSearchBuffer);
+    }
+
+    /**
+     * The EOCD signature scan ZipUtils used before, one candidate offset per iteration.
+     */
+    private static int findZipEndOfCentralDirectoryRecordByteAtATime(ByteBuffer zipContents) {
+        int archiveSize = zipContents.capacity();
+        if (archiveSize < 22) {
+            return -1;
+        }
+        int maxCommentLength = Math.min(archiveSize - 22, 0xffff);
+        int eocdWithEmptyCommentStartPosition = archiveSize - 22;
+        for (int expectedCommentLength = 0; expectedCommentLength <= maxCommentLength;
+             expectedCommentLength++) {
+            int eocdStartPos = eocdWithEmptyCommentStartPosition - expectedCommentLength;
+            if (zipContents.getInt(eocdStartPos) == 0x06054b50) {
+                int actualCommentLength = zipContents.getShort(eocdStartPos + 20) & 0xffff;
+                if (actualCommentLength == expectedCommentLength) {
+                    return eocdStartPos;
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -1,6 +1,7 @@
 package com.branch.v2.read;
 
 import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.model.ChannelPayload;
 import com.branch.v2.read.util.ApkUtils;
 import com.branch.v2.read.util.DataSource;
 import com.branch.v2.read.util.Pair;
@@ -11,31 +12,50 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.util.HashMap;
 
 public class ChannelRead {
 
+    /**
+     * Reads the channel of the provided APK. Only the ZIP End of Central Directory record, the
+     * headers of the APK Signing Block's ID-value pairs and the channel value are read, the
+     * signature blocks are skipped.
+     */
     public static ChannelModel getChannel(String apkFile) {
-        try {
-            RandomAccessFileDataSource randomAccessFileDataSource = new RandomAccessFileDataSource(new RandomAccessFile(apkFile, "r"));
-
-            ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(randomAccessFileDataSource);
-            Pair<DataSource, Long> dataSourceLongPair = ApkUtils.findApkSigningBlock(randomAccessFileDataSource, zipSections);
+        return toChannelModel(readChannelValue(apkFile));
+    }
 
-            ByteBuffer apkSigningBlock = dataSourceLongPair.getFirst().getByteBuffer(0, (int) dataSourceLongPair.getFirst().size());
-            apkSigningBlock.order(ByteOrder.LITTLE_ENDIAN);
-            HashMap<Integer, ByteBuffer> hashMap = ApkUtils.findApkSignatureSchemeV2Block(apkSigningBlock);
+    /**
+     * Decodes a channel value as read by {@link #findChannelValue(String)}, an APK without
+     * channel or with a malformed channel payload yields an empty channel.
+     */
+    static ChannelModel toChannelModel(ByteBuffer channelBuffer) {
+        if (channelBuffer != null) {
+            try {
+                return ChannelModel.fromBytes(channelBuffer);
+            } catch (IllegalArgumentException e) {
+                e.printStackTrace();
+            }
+        }
 
-            ByteBuffer channelBuffer = hashMap.get(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID);
-            if (channelBuffer != null) {
-                byte[] result = ApkUtils.getBytes(channelBuffer);
+        return new ChannelModel("");
+    }
 
-                randomAccessFileDataSource.close();
+    /**
+     * Reads the channel payload of the provided APK without decoding it, so single keys can be
+     * looked up cheaply. An APK without channel yields an empty payload.
+     */
+    public static ChannelPayload getChannelPayload(String apkFile) {
+        ByteBuffer channelBuffer = readChannelValue(apkFile);
+        if (channelBuffer != null) {
+            return new ChannelPayload(channelBuffer);
+        }
 
-                return ChannelModel.fromGson(new String(result));
-            }
+        return new ChannelPayload(ByteBuffer.wrap(new byte[]{'{', '}'}));
+    }
 
+    private static ByteBuffer readChannelValue(String apkFile) {
+        try {
+            return findChannelValue(apkFile);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
         } catch (ApkUtils.SignatureNotFoundException e) {
@@ -47,7 +67,28 @@ public class ChannelRead {
         }
 
 
-        return new ChannelModel("");
+        return null;
+    }
+
+    /**
+     * Returns the channel value of the provided APK, or {@code null} if its APK Signing Block has
+     * no channel. Unlike {@link #getChannel(String)} a failure is not folded into an empty
+     * channel: an {@link IOException} means the APK could not be read, the other exceptions that
+     * it is not a v2 signed APK.
+     */
+    static ByteBuffer findChannelValue(String apkFile)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        RandomAccessFileDataSource randomAccessFileDataSource =
+                new RandomAccessFileDataSource(new RandomAccessFile(apkFile, "r"));
+        try {
+            ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(randomAccessFileDataSource);
+            Pair<DataSource, Long> dataSourceLongPair = ApkUtils.findApkSigningBlock(randomAccessFileDataSource, zipSections);
+
+            return ApkUtils.findApkSigningBlockValue(
+                    dataSourceLongPair.getFirst(), ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID);
+        } finally {
+            randomAccessFileDataSource.close();
+        }
     }
 
 }
@@ -0,0 +1,190 @@
+package com.branch.v2.read;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Bounded LRU cache in front of {@link ChannelRead#getChannel(String)}.
+ * <p>
+ * <p>Entries are keyed by the APK's canonical path, length and last-modified time, so replacing
+ * the APK makes its old entry unreachable and the next lookup reads the new file. The cache can
+ * be persisted to a sidecar file with {@link #save()} and is loaded from it when constructed, so
+ * lookups stay cheap across process restarts.
+ * <p>
+ * <p>The cache holds the encoded channel payloads, each lookup returns a new {@link ChannelModel}
+ * the caller may change freely. An APK that could not be read is not cached, so a transient I/O
+ * error is not served until the file changes. An APK without channel is cached as the empty
+ * channel.
+ */
+public class ChannelReadCache {
+
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ChannelReadCache sDefault = new ChannelReadCache(DEFAULT_MAX_ENTRIES);
+
+    private final int mMaxEntries;
+    private final File mSidecarFile;
+    private final LinkedHashMap<String, byte[]> mEntries;
+
+    /**
+     * Returns the process-wide cache, holding up to {@link #DEFAULT_MAX_ENTRIES} APKs and not
+     * persisted.
+     */
+    public static ChannelReadCache getDefault() {
+        return sDefault;
+    }
+
+    public ChannelReadCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries  maximum number of APKs kept, the least recently used one is evicted first
+     * @param sidecarFile file the cache is loaded from and saved to, or {@code null}
+     */
+    public ChannelReadCache(final int maxEntries, File sidecarFile) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries: " + maxEntries);
+        }
+        mMaxEntries = maxEntries;
+        mSidecarFile = sidecarFile;
+        mEntries = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > mMaxEntries;
+            }
+        };
+        load();
+    }
+
+    /**
+     * Returns the channel of the provided APK, reading it only if the APK is not cached or has
+     * changed since it was cached.
+     */
+    public ChannelModel getChannel(String apkFile) {
+        String key = getKey(apkFile);
+        byte[] payload;
+        synchronized (mEntries) {
+            payload = mEntries.get(key);
+        }
+        if (payload != null) {
+            return ChannelModel.fromBytes(ByteBuffer.wrap(payload));
+        }
+
+        // read outside of the lock, concurrent misses for the same APK read it twice
+        ByteBuffer channelBuffer;
+        try {
+            channelBuffer = ChannelRead.findChannelValue(apkFile);
+        } catch (IOException e) {
+            Log.log("channel not read: " + apkFile + " " + e);
+            return new ChannelModel("");
+        } catch (ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            // not a v2 signed APK, which does not change until the file does
+            channelBuffer = null;
+        }
+        ChannelModel channelModel = ChannelRead.toChannelModel(channelBuffer);
+        payload = channelModel.getBytes();
+        synchronized (mEntries) {
+            mEntries.put(key, payload);
+        }
+        return channelModel;
+    }
+
+    /**
+     * Removes all entries. The sidecar file, if any, is left untouched until {@link #save()}.
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    /**
+     * Writes the cache to its sidecar file. Does nothing if the cache has no sidecar file.
+     */
+    public void save() throws IOException {
+        if (mSidecarFile == null) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        synchronized (mEntries) {
+            for (Map.Entry<String, byte[]> entry : mEntries.entrySet()) {
+                properties.setProperty(entry.getKey(), new String(entry.getValue(), UTF_8));
+            }
+        }
+
+        // write a temp file first so a crash never leaves a truncated sidecar behind
+        File tmpFile = new File(mSidecarFile.getPath() + ".tmp");
+        OutputStream out = new FileOutputStream(tmpFile);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!tmpFile.renameTo(mSidecarFile)) {
+            mSidecarFile.delete();
+            if (!tmpFile.renameTo(mSidecarFile)) {
+                throw new IOException("Failed to write " + mSidecarFile);
+            }
+        }
+    }
+
+    private void load() {
+        if (mSidecarFile == null || !mSidecarFile.isFile()) {
+            return;
+        }
+
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(mSidecarFile);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.log("channel cache not loaded: " + e);
+            return;
+        }
+
+        synchronized (mEntries) {
+            for (String key : properties.stringPropertyNames()) {
+                // decoded and encoded again, so a damaged entry is dropped instead of served
+                try {
+                    ChannelModel channelModel = ChannelModel.fromGson(properties.getProperty(key));
+                    mEntries.put(key, channelModel.getBytes());
+                } catch (IllegalArgumentException e) {
+                    Log.log("channel cache entry dropped: " + key);
+                }
+            }
+        }
+    }
+
+    private static String getKey(String apkFile) {
+        File file = new File(apkFile);
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        } catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+        return path + "|" + file.length() + "|" + file.lastModified();
+    }
+}
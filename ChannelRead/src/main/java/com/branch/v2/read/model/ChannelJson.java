@@ -0,0 +1,427 @@
+package com.branch.v2.read.model;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Minimal JSON codec for the channel payload, replacing Gson.
+ * <p>
+ * <p>The payload is a flat JSON object encoded in UTF-8, the same format Gson wrote for
+ * {@link ChannelModel}. Gson's output was encoded in the platform charset though, so a payload of
+ * an older version written on a non UTF-8 platform is not valid UTF-8 and is rejected here:
+ * {@link ChannelModel#fromBytes(ByteBuffer)} transcodes it first. The reader works on
+ * the raw bytes with absolute indices: finding a key compares it in place, and only the value
+ * that is asked for is decoded. Nested values are skipped, whitespace and escapes are accepted
+ * wherever JSON allows them.
+ */
+final class ChannelJson {
+    private ChannelJson() {
+    }
+
+    /**
+     * Appends {@code "key":"value"} to {@code out}, preceded by a comma unless {@code out} only
+     * holds the opening brace.
+     */
+    static void appendString(StringBuilder out, String key, String value) {
+        appendKey(out, key);
+        appendQuoted(out, value);
+    }
+
+    /**
+     * Appends {@code "key":value} to {@code out}, preceded by a comma unless {@code out} only
+     * holds the opening brace.
+     */
+    static void appendNumber(StringBuilder out, String key, long value) {
+        appendKey(out, key);
+        out.append(value);
+    }
+
+    private static void appendKey(StringBuilder out, String key) {
+        if (out.length() > 1) {
+            out.append(',');
+        }
+        appendQuoted(out, key);
+        out.append(':');
+    }
+
+    private static void appendQuoted(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x2028 || c == 0x2029) {
+                        out.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.append(c);
+                    }
+                    break;
+            }
+        }
+        out.append('"');
+    }
+
+    /**
+     * Returns the index of the value of {@code key} in the JSON object held between the position
+     * and limit of {@code json}, or {@code -1} if the object has no such key.
+     *
+     * @throws IllegalArgumentException if the payload is not a JSON object
+     */
+    static int findValue(ByteBuffer json, String key) {
+        int limit = json.limit();
+        int pos = skipWhitespace(json, json.position());
+        pos = expect(json, pos, '{');
+        pos = skipWhitespace(json, pos);
+        if (pos < limit && json.get(pos) == '}') {
+            return -1;
+        }
+        while (true) {
+            pos = skipWhitespace(json, pos);
+            boolean match = stringEquals(json, pos, key);
+            pos = skipString(json, pos);
+            pos = skipWhitespace(json, pos);
+            pos = expect(json, pos, ':');
+            pos = skipWhitespace(json, pos);
+            if (match) {
+                return pos;
+            }
+            pos = skipValue(json, pos);
+            pos = skipWhitespace(json, pos);
+            if (pos < limit && json.get(pos) == ',') {
+                pos++;
+                continue;
+            }
+            expect(json, pos, '}');
+            return -1;
+        }
+    }
+
+    /**
+     * Decodes all members of the JSON object held between the position and limit of {@code json}
+     * into {@code out}: strings as {@link String}, integer numbers as {@link Long} and
+     * {@code true}/{@code false} as {@link Boolean}. Members with other values are skipped.
+     *
+     * @throws IllegalArgumentException if the payload is not a JSON object
+     */
+    static void readObject(ByteBuffer json, Map<String, Object> out) {
+        int limit = json.limit();
+        int pos = skipWhitespace(json, json.position());
+        pos = expect(json, pos, '{');
+        pos = skipWhitespace(json, pos);
+        if (pos < limit && json.get(pos) == '}') {
+            return;
+        }
+        while (true) {
+            pos = skipWhitespace(json, pos);
+            String key = readString(json, pos);
+            pos = skipString(json, pos);
+            pos = skipWhitespace(json, pos);
+            pos = expect(json, pos, ':');
+            pos = skipWhitespace(json, pos);
+            int valueEnd = skipValue(json, pos);
+            if (isString(json, pos)) {
+                out.put(key, readString(json, pos));
+            } else if (isInteger(json, pos, valueEnd)) {
+                out.put(key, readLong(json, pos));
+            } else if (valueEnd - pos == 4 && json.get(pos) == 't') {
+                out.put(key, Boolean.TRUE);
+            } else if (valueEnd - pos == 5 && json.get(pos) == 'f') {
+                out.put(key, Boolean.FALSE);
+            }
+            pos = skipWhitespace(json, valueEnd);
+            if (pos < limit && json.get(pos) == ',') {
+                pos++;
+                continue;
+            }
+            expect(json, pos, '}');
+            return;
+        }
+    }
+
+    /**
+     * Returns whether the value at {@code pos} is a JSON string.
+     */
+    static boolean isString(ByteBuffer json, int pos) {
+        return pos < json.limit() && json.get(pos) == '"';
+    }
+
+    /**
+     * Decodes the JSON string starting at {@code pos}.
+     */
+    static String readString(ByteBuffer json, int pos) {
+        int limit = json.limit();
+        pos = expect(json, pos, '"');
+        StringBuilder result = new StringBuilder();
+        while (true) {
+            if (pos >= limit) {
+                throw malformed(pos);
+            }
+            int b = json.get(pos) & 0xff;
+            if (b == '"') {
+                return result.toString();
+            }
+            if (b == '\\') {
+                pos = readEscape(json, pos, result);
+                continue;
+            }
+            if (b < 0x80) {
+                result.append((char) b);
+                pos++;
+                continue;
+            }
+            // UTF-8 multi-byte sequence
+            int length;
+            int codePoint;
+            if ((b & 0xe0) == 0xc0) {
+                length = 2;
+                codePoint = b & 0x1f;
+            } else if ((b & 0xf0) == 0xe0) {
+                length = 3;
+                codePoint = b & 0x0f;
+            } else if ((b & 0xf8) == 0xf0) {
+                length = 4;
+                codePoint = b & 0x07;
+            } else {
+                throw malformed(pos);
+            }
+            if (pos + length > limit) {
+                throw malformed(pos);
+            }
+            for (int i = 1; i < length; i++) {
+                int next = json.get(pos + i) & 0xff;
+                if ((next & 0xc0) != 0x80) {
+                    throw malformed(pos + i);
+                }
+                codePoint = (codePoint << 6) | (next & 0x3f);
+            }
+            result.appendCodePoint(codePoint);
+            pos += length;
+        }
+    }
+
+    /**
+     * Returns whether the value between {@code pos} and {@code end} is an integer number that
+     * fits a {@code long}.
+     */
+    static boolean isInteger(ByteBuffer json, int pos, int end) {
+        if (pos < end && json.get(pos) == '-') {
+            pos++;
+        }
+        if (pos >= end || end - pos > 18) {
+            return false;
+        }
+        for (; pos < end; pos++) {
+            byte b = json.get(pos);
+            if (b < '0' || b > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Decodes the JSON integer number starting at {@code pos}.
+     */
+    static long readLong(ByteBuffer json, int pos) {
+        int limit = json.limit();
+        boolean negative = pos < limit && json.get(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        int start = pos;
+        long result = 0;
+        while (pos < limit) {
+            int b = json.get(pos);
+            if (b < '0' || b > '9') {
+                break;
+            }
+            result = result * 10 + (b - '0');
+            pos++;
+        }
+        if (pos == start) {
+            throw malformed(pos);
+        }
+        return negative ? -result : result;
+    }
+
+    /**
+     * Returns the text of the literal value (number, {@code true}, {@code false}) between
+     * {@code pos} and {@code end}.
+     */
+    static String readLiteral(ByteBuffer json, int pos, int end) {
+        char[] chars = new char[end - pos];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = (char) json.get(pos + i);
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Returns whether the JSON string starting at {@code pos} equals {@code expected}, comparing
+     * in place without decoding the string.
+     */
+    private static boolean stringEquals(ByteBuffer json, int pos, String expected) {
+        int limit = json.limit();
+        pos = expect(json, pos, '"');
+        int i = 0;
+        while (pos < limit) {
+            int b = json.get(pos) & 0xff;
+            if (b == '"') {
+                return i == expected.length();
+            }
+            if (b == '\\' || b >= 0x80) {
+                // Escapes and non-ASCII keys are rare, compare them the slow way.
+                return readString(json, pos - i - 1).equals(expected);
+            }
+            if (i >= expected.length() || expected.charAt(i) != b) {
+                return false;
+            }
+            i++;
+            pos++;
+        }
+        throw malformed(pos);
+    }
+
+    private static int readEscape(ByteBuffer json, int pos, StringBuilder out) {
+        if (pos + 1 >= json.limit()) {
+            throw malformed(pos);
+        }
+        char c = (char) json.get(pos + 1);
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                out.append(c);
+                return pos + 2;
+            case 'b':
+                out.append('\b');
+                return pos + 2;
+            case 'f':
+                out.append('\f');
+                return pos + 2;
+            case 'n':
+                out.append('\n');
+                return pos + 2;
+            case 'r':
+                out.append('\r');
+                return pos + 2;
+            case 't':
+                out.append('\t');
+                return pos + 2;
+            case 'u':
+                if (pos + 6 > json.limit()) {
+                    throw malformed(pos);
+                }
+                int value = 0;
+                for (int i = pos + 2; i < pos + 6; i++) {
+                    int digit = Character.digit((char) json.get(i), 16);
+                    if (digit < 0) {
+                        throw malformed(i);
+                    }
+                    value = (value << 4) | digit;
+                }
+                out.append((char) value);
+                return pos + 6;
+            default:
+                throw malformed(pos);
+        }
+    }
+
+    private static int skipString(ByteBuffer json, int pos) {
+        int limit = json.limit();
+        pos = expect(json, pos, '"');
+        while (pos < limit) {
+            byte b = json.get(pos);
+            if (b == '"') {
+                return pos + 1;
+            }
+            pos += (b == '\\') ? 2 : 1;
+        }
+        throw malformed(pos);
+    }
+
+    /**
+     * Returns the index just past the value starting at {@code pos}.
+     */
+    static int skipValue(ByteBuffer json, int pos) {
+        int limit = json.limit();
+        if (pos >= limit) {
+            throw malformed(pos);
+        }
+        byte b = json.get(pos);
+        if (b == '"') {
+            return skipString(json, pos);
+        }
+        if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < limit) {
+                b = json.get(pos);
+                if (b == '"') {
+                    pos = skipString(json, pos);
+                    continue;
+                }
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    depth--;
+                    if (depth == 0) {
+                        return pos + 1;
+                    }
+                }
+                pos++;
+            }
+            throw malformed(pos);
+        }
+        // number, true, false, null
+        int start = pos;
+        while (pos < limit) {
+            b = json.get(pos);
+            if (b == ',' || b == '}' || b == ']' || isWhitespace(b)) {
+                break;
+            }
+            pos++;
+        }
+        if (pos == start) {
+            throw malformed(pos);
+        }
+        return pos;
+    }
+
+    private static int skipWhitespace(ByteBuffer json, int pos) {
+        int limit = json.limit();
+        while (pos < limit && isWhitespace(json.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static int expect(ByteBuffer json, int pos, char c) {
+        if (pos >= json.limit() || json.get(pos) != c) {
+            throw malformed(pos);
+        }
+        return pos + 1;
+    }
+
+    private static IllegalArgumentException malformed(int pos) {
+        return new IllegalArgumentException("Malformed channel payload at offset " + pos);
+    }
+}
@@ -1,28 +1,166 @@
 package com.branch.v2.read.model;
 
 import com.branch.v2.read.util.StringUtil;
-import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * channel model 方便扩展
+ * <p>
+ * <p>Stored in the APK Signing Block as a single UTF-8 JSON object, see {@link ChannelJson}:
+ * {@code channelName} followed by any number of typed key/value pairs, e.g.
+ * {@code {"channelName":"huawei","campaign":"spring","abBucket":3}}. Values are strings or
+ * integers. To read single keys without decoding the whole payload use {@link ChannelPayload}.
  */
 public class ChannelModel implements Serializable {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    public static final String KEY_CHANNEL_NAME = "channelName";
+    public static final String KEY_SUB_CHANNEL = "subChannel";
+    public static final String KEY_BUILD_ID = "buildId";
+    public static final String KEY_CAMPAIGN = "campaign";
+    public static final String KEY_AB_BUCKET = "abBucket";
+
     private String channelName;
 
+    private final LinkedHashMap<String, Object> values = new LinkedHashMap<>();
+
     public ChannelModel(String channelName) {
         this.channelName = channelName;
     }
 
+    public String getChannelName() {
+        return channelName;
+    }
+
+    public String getSubChannel() {
+        return getString(KEY_SUB_CHANNEL);
+    }
+
+    public String getBuildId() {
+        return getString(KEY_BUILD_ID);
+    }
+
+    public String getCampaign() {
+        return getString(KEY_CAMPAIGN);
+    }
+
+    /**
+     * Returns the A/B bucket, or {@code -1} if none was set.
+     */
+    public int getAbBucket() {
+        Object value = values.get(KEY_AB_BUCKET);
+        return (value instanceof Long) ? (int) (long) (Long) value : -1;
+    }
+
+    /**
+     * Returns the value of {@code key}, numbers as their decimal text, or {@code null} if none was
+     * set.
+     */
+    public String getString(String key) {
+        Object value = values.get(key);
+        return (value != null) ? value.toString() : null;
+    }
+
+    /**
+     * Returns all key/value pairs except the channel name.
+     */
+    public Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    public void put(String key, String value) {
+        checkKey(key);
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+    }
+
+    public void put(String key, long value) {
+        checkKey(key);
+        values.put(key, value);
+    }
+
+    private static void checkKey(String key) {
+        if (key == null || KEY_CHANNEL_NAME.equals(key)) {
+            throw new IllegalArgumentException("key: " + key);
+        }
+    }
+
     public byte[] getBytes() {
-        Gson gson = new Gson();
-        String channel = gson.toJson(this);
+        StringBuilder channel = new StringBuilder("{");
+        if (channelName != null) {
+            ChannelJson.appendString(channel, KEY_CHANNEL_NAME, channelName);
+        }
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                ChannelJson.appendNumber(channel, entry.getKey(), (Long) value);
+            } else {
+                ChannelJson.appendString(channel, entry.getKey(), value.toString());
+            }
+        }
+        channel.append('}');
 
-        return channel.getBytes();
+        return channel.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * Decodes a channel payload as read from the APK Signing Block. Payloads written with Gson by
+     * earlier versions decode the same way. Those were encoded in the platform charset of the
+     * machine that wrote them: a payload that is not valid UTF-8 is decoded with the platform
+     * charset, as earlier versions read it, malformed bytes becoming U+FFFD.
+     *
+     * @throws IllegalArgumentException if the payload is not a JSON object
+     */
+    public static ChannelModel fromBytes(ByteBuffer channelJson) {
+        LinkedHashMap<String, Object> decoded = new LinkedHashMap<>();
+        try {
+            ChannelJson.readObject(channelJson, decoded);
+        } catch (IllegalArgumentException e) {
+            ByteBuffer transcoded = transcodePlatformCharset(channelJson);
+            if (transcoded == null) {
+                throw e;
+            }
+            decoded.clear();
+            ChannelJson.readObject(transcoded, decoded);
+        }
+
+        Object name = decoded.remove(KEY_CHANNEL_NAME);
+        ChannelModel channelModel = new ChannelModel((name instanceof String) ? (String) name : null);
+        for (Map.Entry<String, Object> entry : decoded.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Long) {
+                channelModel.values.put(entry.getKey(), value);
+            } else {
+                channelModel.values.put(entry.getKey(), value.toString());
+            }
+        }
+        return channelModel;
+    }
+
+    /**
+     * Returns the payload decoded with the platform charset and encoded in UTF-8, or {@code null}
+     * if it is valid UTF-8 already.
+     */
+    private static ByteBuffer transcodePlatformCharset(ByteBuffer channelJson) {
+        try {
+            UTF_8.newDecoder().decode(channelJson.duplicate());
+            return null;
+        } catch (CharacterCodingException e) {
+            byte[] bytes = new byte[channelJson.remaining()];
+            channelJson.duplicate().get(bytes);
+            return ByteBuffer.wrap(new String(bytes, Charset.defaultCharset()).getBytes(UTF_8));
+        }
     }
 
     public static ChannelModel fromGson(String channelGson) {
@@ -31,16 +169,14 @@ public class ChannelModel implements Serializable {
             return new ChannelModel("");
         }
 
-        Gson gson = new Gson();
-        return gson.fromJson(channelGson, new TypeToken<ChannelModel>() {
-        }.getType());
-
+        return fromBytes(ByteBuffer.wrap(channelGson.getBytes(UTF_8)));
     }
 
     @Override
     public String toString() {
         return "ChannelModel{" +
                 "channelName='" + channelName + '\'' +
+                (values.isEmpty() ? "" : ", values=" + values) +
                 '}';
     }
 }
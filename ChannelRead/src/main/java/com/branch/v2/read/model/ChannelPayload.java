@@ -0,0 +1,106 @@
+package com.branch.v2.read.model;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight read access to a channel payload, directly over the bytes of the APK Signing Block
+ * entry.
+ * <p>
+ * <p>Nothing is decoded up front. Each lookup scans the payload for its key, comparing the keys
+ * in place, and decodes only the requested value, so reading one key neither parses the whole
+ * payload nor allocates strings for the other keys. Use {@link ChannelModel#fromBytes(ByteBuffer)}
+ * when all values are needed.
+ * <p>
+ * <p>Lookups are lenient about types: {@link #getString(String)} returns numbers and booleans as
+ * their JSON text, and {@link #getLong(String, long)} accepts a string holding an integer.
+ */
+public class ChannelPayload {
+
+    private final ByteBuffer mPayload;
+
+    /**
+     * Constructs a new {@code ChannelPayload} over the data between the position and limit of the
+     * provided buffer. The buffer is not copied, changes to its content are visible in this
+     * payload.
+     */
+    public ChannelPayload(ByteBuffer payload) {
+        mPayload = payload.slice();
+    }
+
+    /**
+     * Returns whether the payload has a value for {@code key}.
+     */
+    public boolean contains(String key) {
+        return ChannelJson.findValue(mPayload, key) != -1;
+    }
+
+    /**
+     * Returns the value of {@code key}, or {@code null} if the payload has no value for it or the
+     * value is {@code null}, an object or an array.
+     */
+    public String getString(String key) {
+        int value = ChannelJson.findValue(mPayload, key);
+        if (value == -1) {
+            return null;
+        }
+        if (ChannelJson.isString(mPayload, value)) {
+            return ChannelJson.readString(mPayload, value);
+        }
+        int valueEnd = ChannelJson.skipValue(mPayload, value);
+        byte first = mPayload.get(value);
+        if (first == 'n' || first == '{' || first == '[') {
+            return null;
+        }
+        return ChannelJson.readLiteral(mPayload, value, valueEnd);
+    }
+
+    /**
+     * Returns the integer value of {@code key}, or {@code defaultValue} if the payload has no
+     * integer value for it.
+     */
+    public long getLong(String key, long defaultValue) {
+        int value = ChannelJson.findValue(mPayload, key);
+        if (value == -1) {
+            return defaultValue;
+        }
+        if (ChannelJson.isString(mPayload, value)) {
+            // "123": the quotes are skipped without decoding the string
+            int valueEnd = ChannelJson.skipValue(mPayload, value);
+            if (ChannelJson.isInteger(mPayload, value + 1, valueEnd - 1)) {
+                return ChannelJson.readLong(mPayload, value + 1);
+            }
+            return defaultValue;
+        }
+        int valueEnd = ChannelJson.skipValue(mPayload, value);
+        if (ChannelJson.isInteger(mPayload, value, valueEnd)) {
+            return ChannelJson.readLong(mPayload, value);
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns the integer value of {@code key}, or {@code defaultValue} if the payload has no
+     * integer value for it or the value does not fit an {@code int}.
+     */
+    public int getInt(String key, int defaultValue) {
+        long value = getLong(key, defaultValue);
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return defaultValue;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Returns the channel name, see {@link ChannelModel#KEY_CHANNEL_NAME}.
+     */
+    public String getChannelName() {
+        return getString(ChannelModel.KEY_CHANNEL_NAME);
+    }
+
+    /**
+     * Decodes the whole payload.
+     */
+    public ChannelModel toChannelModel() {
+        return ChannelModel.fromBytes(mPayload);
+    }
+}
@@ -0,0 +1,556 @@
+package com.branch.v2.read.util;
+
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Verifies the content digests of the APK Signature Scheme v2 block of an APK, the integrity
+ * check Android runs at install time over everything except the APK Signing Block.
+ * <p>
+ * <p>The APK is split into the ZIP entries, the Central Directory and the End of Central
+ * Directory, each section is split into chunks of {@link #CHUNK_SIZE_BYTES}, and the digests of
+ * the chunks are combined into the digest the signers signed. The chunk digests are computed in
+ * parallel on a {@link ForkJoinPool}.
+ * <p>
+ * <p>Writing a channel only changes the APK Signing Block and the Central Directory offset, so
+ * all channel APKs of a base APK share its ZIP entries, which are nearly the whole file. Once
+ * {@link #verifyBase(DataSource)} has verified the base APK, {@link #verifyChannelApk(DataSource)}
+ * reuses the base's chunk digests of the ZIP entries and only reads the Central Directory and the
+ * End of Central Directory of each channel APK.
+ * <p>
+ * <p>Only the digests are verified, not the signatures of the signers over them, nor their
+ * certificates: those are copied unchanged from the base APK by the channel writer. Run
+ * apksigner on the base APK once to check them.
+ * <p>
+ * <p>Instances are safe for use by multiple threads.
+ */
+public class ApkSignatureVerifier {
+
+    /**
+     * Size (in bytes) of the chunks the sections of the APK are digested in.
+     */
+    public static final int CHUNK_SIZE_BYTES = 1024 * 1024;
+
+    public static final int CONTENT_DIGEST_CHUNKED_SHA256 = 1;
+    public static final int CONTENT_DIGEST_CHUNKED_SHA512 = 2;
+
+    private static final int SIGNATURE_RSA_PSS_WITH_SHA256 = 0x0101;
+    private static final int SIGNATURE_RSA_PSS_WITH_SHA512 = 0x0102;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256 = 0x0103;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512 = 0x0104;
+    private static final int SIGNATURE_ECDSA_WITH_SHA256 = 0x0201;
+    private static final int SIGNATURE_ECDSA_WITH_SHA512 = 0x0202;
+    private static final int SIGNATURE_DSA_WITH_SHA256 = 0x0301;
+
+    /**
+     * Number of chunks digested by one fork-join task.
+     */
+    private static final int CHUNKS_PER_TASK = 4;
+
+    private final ForkJoinPool mPool;
+
+    /**
+     * ZIP entries chunk digests of the base APK, {@code null} until a base APK is verified.
+     */
+    private volatile SectionDigests mBaseEntriesDigests;
+
+    /**
+     * Constructs a new {@code ApkSignatureVerifier} digesting chunks on the common pool.
+     */
+    public ApkSignatureVerifier() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    public ApkSignatureVerifier(ForkJoinPool pool) {
+        if (pool == null) {
+            throw new NullPointerException("pool == null");
+        }
+        mPool = pool;
+    }
+
+    /**
+     * Verifies all content digests of the provided APK.
+     *
+     * @return {@code true} if every digest of every signer matches the APK
+     * @throws ApkUtils.SignatureNotFoundException if the APK has no APK Signature Scheme v2 block,
+     *                                             the block is malformed or uses no supported
+     *                                             algorithm
+     */
+    public boolean verify(DataSource apk)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        SignedApk signedApk = SignedApk.parse(apk);
+        return verify(signedApk, digestEntries(signedApk, null));
+    }
+
+    /**
+     * Verifies all content digests of the base APK, see {@link #verify(DataSource)}, and keeps
+     * the chunk digests of its ZIP entries for {@link #verifyChannelApk(DataSource)} if it is
+     * valid.
+     */
+    public boolean verifyBase(DataSource baseApk)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        SignedApk signedApk = SignedApk.parse(baseApk);
+        SectionDigests entriesDigests = digestEntries(signedApk, null);
+        if (!verify(signedApk, entriesDigests)) {
+            return false;
+        }
+        mBaseEntriesDigests = entriesDigests;
+        return true;
+    }
+
+    /**
+     * Verifies the content digests of a channel APK written from the base APK verified by
+     * {@link #verifyBase(DataSource)}. The ZIP entries of the channel APK are not read: when they
+     * are as large as the base's, they are taken to be the base's and the base's chunk digests
+     * are used. Otherwise, or if no base APK was verified, this is {@link #verify(DataSource)}.
+     */
+    public boolean verifyChannelApk(DataSource channelApk)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        SignedApk signedApk = SignedApk.parse(channelApk);
+        return verify(signedApk, digestEntries(signedApk, mBaseEntriesDigests));
+    }
+
+    /**
+     * Returns the content digest of the provided APK for the provided content digest algorithm,
+     * the value its signers sign, whatever the APK Signing Block holds.
+     *
+     * @param contentDigestAlgorithm {@link #CONTENT_DIGEST_CHUNKED_SHA256} or
+     *                               {@link #CONTENT_DIGEST_CHUNKED_SHA512}
+     * @throws ApkUtils.SignatureNotFoundException if the APK has no APK Signing Block
+     */
+    public byte[] computeContentDigest(DataSource apk, int contentDigestAlgorithm)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        getMessageDigestAlgorithm(contentDigestAlgorithm);
+        ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(apk);
+        long apkSigningBlockOffset = ApkUtils.findApkSigningBlock(apk, zipSections).getSecond();
+        int[] algorithms = {contentDigestAlgorithm};
+        return computeContentDigests(algorithms,
+                digestSection(apk.slice(0, apkSigningBlockOffset), algorithms),
+                getCentralDirectory(apk, zipSections),
+                getEndOfCentralDirectory(zipSections, apkSigningBlockOffset))[0];
+    }
+
+    private SectionDigests digestEntries(SignedApk signedApk, SectionDigests baseEntriesDigests)
+            throws IOException {
+        if ((baseEntriesDigests != null)
+                && (baseEntriesDigests.mSectionSize == signedApk.mEntries.size())
+                && baseEntriesDigests.covers(signedApk.mDigestAlgorithms)) {
+            return baseEntriesDigests;
+        }
+        return digestSection(signedApk.mEntries, signedApk.mDigestAlgorithms);
+    }
+
+    private boolean verify(SignedApk signedApk, SectionDigests entriesDigests)
+            throws IOException {
+        int[] algorithms = signedApk.mDigestAlgorithms;
+        byte[][] actualDigests = computeContentDigests(
+                algorithms, entriesDigests, signedApk.mCentralDirectory,
+                signedApk.mEndOfCentralDirectory);
+        for (ExpectedDigest expected : signedApk.mExpectedDigests) {
+            byte[] actual = null;
+            for (int i = 0; i < algorithms.length; i++) {
+                if (algorithms[i] == expected.mContentDigestAlgorithm) {
+                    actual = actualDigests[i];
+                }
+            }
+            if (!MessageDigest.isEqual(expected.mDigest, actual)) {
+                Log.log("APK Signature Scheme v2 digest mismatch, signer #"
+                        + expected.mSignerIndex + " "
+                        + getMessageDigestAlgorithm(expected.mContentDigestAlgorithm));
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[][] computeContentDigests(int[] algorithms, SectionDigests entriesDigests,
+                                           DataSource centralDirectory,
+                                           DataSource endOfCentralDirectory) throws IOException {
+        SectionDigests[] sections = {
+                entriesDigests,
+                digestSection(centralDirectory, algorithms),
+                digestSection(endOfCentralDirectory, algorithms)
+        };
+        long chunkCount = 0;
+        for (SectionDigests section : sections) {
+            chunkCount += section.mChunkCount;
+        }
+        if (chunkCount > Integer.MAX_VALUE) {
+            throw new IOException("Too many chunks: " + chunkCount);
+        }
+
+        byte[][] result = new byte[algorithms.length][];
+        for (int i = 0; i < algorithms.length; i++) {
+            MessageDigest md = newMessageDigest(algorithms[i]);
+            md.update((byte) 0x5a);
+            md.update(toUnsignedInt32LittleEndian((int) chunkCount));
+            for (SectionDigests section : sections) {
+                md.update(section.getChunkDigests(algorithms[i]));
+            }
+            result[i] = md.digest();
+        }
+        return result;
+    }
+
+    private SectionDigests digestSection(DataSource section, int[] algorithms)
+            throws IOException {
+        long chunkCount = (section.size() + CHUNK_SIZE_BYTES - 1) / CHUNK_SIZE_BYTES;
+        if (chunkCount > Integer.MAX_VALUE / 64) {
+            throw new IOException("Too many chunks: " + chunkCount);
+        }
+        SectionDigests digests = new SectionDigests(section.size(), (int) chunkCount, algorithms);
+        if (chunkCount > 0) {
+            ChunkDigestTask task = new ChunkDigestTask(section, digests, 0, (int) chunkCount);
+            try {
+                mPool.invoke(task);
+            } catch (ChunkIOException e) {
+                throw e.getCause();
+            }
+        }
+        return digests;
+    }
+
+    private static DataSource getCentralDirectory(DataSource apk,
+                                                  ApkUtils.ZipSections zipSections) {
+        // up to the End of Central Directory record, ZIP64 records included
+        long centralDirectoryOffset = zipSections.getZipCentralDirectoryOffset();
+        return apk.slice(centralDirectoryOffset,
+                zipSections.getZipEndOfCentralDirectoryOffset() - centralDirectoryOffset);
+    }
+
+    /**
+     * Returns the End of Central Directory record as it is digested: with the Central Directory
+     * offset pointing at the APK Signing Block.
+     */
+    private static DataSource getEndOfCentralDirectory(ApkUtils.ZipSections zipSections,
+                                                       long apkSigningBlockOffset) {
+        ByteBuffer source = zipSections.getZipEndOfCentralDirectory();
+        ByteBuffer eocd = ByteBuffer.allocate(source.remaining());
+        eocd.order(ByteOrder.LITTLE_ENDIAN);
+        eocd.put(source.duplicate());
+        eocd.flip();
+        ApkUtils.setZipEocdCentralDirectoryOffset(eocd, apkSigningBlockOffset);
+        return DataSources.asDataSource(eocd);
+    }
+
+    private static int getContentDigestAlgorithm(int signatureAlgorithm) {
+        switch (signatureAlgorithm) {
+            case SIGNATURE_RSA_PSS_WITH_SHA256:
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256:
+            case SIGNATURE_ECDSA_WITH_SHA256:
+            case SIGNATURE_DSA_WITH_SHA256:
+                return CONTENT_DIGEST_CHUNKED_SHA256;
+            case SIGNATURE_RSA_PSS_WITH_SHA512:
+            case SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA512:
+            case SIGNATURE_ECDSA_WITH_SHA512:
+                return CONTENT_DIGEST_CHUNKED_SHA512;
+            default:
+                return -1;
+        }
+    }
+
+    private static String getMessageDigestAlgorithm(int contentDigestAlgorithm) {
+        switch (contentDigestAlgorithm) {
+            case CONTENT_DIGEST_CHUNKED_SHA256:
+                return "SHA-256";
+            case CONTENT_DIGEST_CHUNKED_SHA512:
+                return "SHA-512";
+            default:
+                throw new IllegalArgumentException(
+                        "Unknown content digest algorithm: " + contentDigestAlgorithm);
+        }
+    }
+
+    private static int getDigestLength(int contentDigestAlgorithm) {
+        return contentDigestAlgorithm == CONTENT_DIGEST_CHUNKED_SHA512 ? 64 : 32;
+    }
+
+    private static MessageDigest newMessageDigest(int contentDigestAlgorithm) {
+        try {
+            return MessageDigest.getInstance(getMessageDigestAlgorithm(contentDigestAlgorithm));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 and SHA-512 are available on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] toUnsignedInt32LittleEndian(int value) {
+        return new byte[]{
+                (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24)
+        };
+    }
+
+    /**
+     * Sections and signed digests of an APK.
+     */
+    private static class SignedApk {
+        private final DataSource mEntries;
+        private final DataSource mCentralDirectory;
+        private final DataSource mEndOfCentralDirectory;
+        private final List<ExpectedDigest> mExpectedDigests;
+        private final int[] mDigestAlgorithms;
+
+        private SignedApk(DataSource entries, DataSource centralDirectory,
+                          DataSource endOfCentralDirectory, List<ExpectedDigest> expectedDigests) {
+            mEntries = entries;
+            mCentralDirectory = centralDirectory;
+            mEndOfCentralDirectory = endOfCentralDirectory;
+            mExpectedDigests = expectedDigests;
+            boolean sha256 = false;
+            boolean sha512 = false;
+            for (ExpectedDigest expected : expectedDigests) {
+                sha256 |= expected.mContentDigestAlgorithm == CONTENT_DIGEST_CHUNKED_SHA256;
+                sha512 |= expected.mContentDigestAlgorithm == CONTENT_DIGEST_CHUNKED_SHA512;
+            }
+            if (sha256 && sha512) {
+                mDigestAlgorithms =
+                        new int[]{CONTENT_DIGEST_CHUNKED_SHA256, CONTENT_DIGEST_CHUNKED_SHA512};
+            } else if (sha256) {
+                mDigestAlgorithms = new int[]{CONTENT_DIGEST_CHUNKED_SHA256};
+            } else {
+                mDigestAlgorithms = new int[]{CONTENT_DIGEST_CHUNKED_SHA512};
+            }
+        }
+
+        static SignedApk parse(DataSource apk)
+                throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+            ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(apk);
+            Pair<DataSource, Long> apkSigningBlockAndOffset =
+                    ApkUtils.findApkSigningBlock(apk, zipSections);
+            ByteBuffer v2Block = ApkUtils.findApkSigningBlockValue(
+                    apkSigningBlockAndOffset.getFirst(),
+                    ApkUtils.APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+            if (v2Block == null) {
+                throw new ApkUtils.SignatureNotFoundException(
+                        "No APK Signature Scheme v2 block in APK Signing Block");
+            }
+            v2Block.order(ByteOrder.LITTLE_ENDIAN);
+            List<ExpectedDigest> expectedDigests;
+            try {
+                expectedDigests = parseDigests(v2Block);
+            } catch (BufferUnderflowException e) {
+                throw new ApkUtils.SignatureNotFoundException(
+                        "Malformed APK Signature Scheme v2 block", e);
+            }
+            if (expectedDigests.isEmpty()) {
+                throw new ApkUtils.SignatureNotFoundException(
+                        "No digest with a supported algorithm in APK Signature Scheme v2 block");
+            }
+
+            long apkSigningBlockOffset = apkSigningBlockAndOffset.getSecond();
+            return new SignedApk(
+                    apk.slice(0, apkSigningBlockOffset),
+                    getCentralDirectory(apk, zipSections),
+                    getEndOfCentralDirectory(zipSections, apkSigningBlockOffset),
+                    expectedDigests);
+        }
+
+        private static List<ExpectedDigest> parseDigests(ByteBuffer v2Block)
+                throws ApkUtils.SignatureNotFoundException {
+            // FORMAT (all sequences and values are uint32 length-prefixed):
+            // * signers
+            //   * signer
+            //     * signed data
+            //       * digests: (uint32 signature algorithm ID, digest)
+            //       * certificates, additional attributes
+            //     * signatures, public key
+            List<ExpectedDigest> expectedDigests = new ArrayList<>();
+            ByteBuffer signers = getLengthPrefixedSlice(v2Block);
+            int signerIndex = 0;
+            while (signers.hasRemaining()) {
+                ByteBuffer signer = getLengthPrefixedSlice(signers);
+                ByteBuffer signedData = getLengthPrefixedSlice(signer);
+                ByteBuffer digests = getLengthPrefixedSlice(signedData);
+                while (digests.hasRemaining()) {
+                    ByteBuffer digest = getLengthPrefixedSlice(digests);
+                    int contentDigestAlgorithm = getContentDigestAlgorithm(digest.getInt());
+                    ByteBuffer digestValue = getLengthPrefixedSlice(digest);
+                    byte[] value = new byte[digestValue.remaining()];
+                    digestValue.get(value);
+                    if (contentDigestAlgorithm == -1) {
+                        // unknown algorithm, e.g. a verity digest: not required for install
+                        continue;
+                    }
+                    if (value.length != getDigestLength(contentDigestAlgorithm)) {
+                        throw new ApkUtils.SignatureNotFoundException(
+                                "Unexpected digest length: " + value.length);
+                    }
+                    expectedDigests.add(
+                            new ExpectedDigest(signerIndex, contentDigestAlgorithm, value));
+                }
+                signerIndex++;
+            }
+            return expectedDigests;
+        }
+
+        private static ByteBuffer getLengthPrefixedSlice(ByteBuffer source)
+                throws ApkUtils.SignatureNotFoundException {
+            if (source.remaining() < 4) {
+                throw new ApkUtils.SignatureNotFoundException(
+                        "Remaining buffer too short to contain length of length-prefixed field");
+            }
+            int len = source.getInt();
+            if ((len < 0) || (len > source.remaining())) {
+                throw new ApkUtils.SignatureNotFoundException(
+                        "Length-prefixed field longer than remaining buffer: " + len
+                                + ", remaining: " + source.remaining());
+            }
+            ByteBuffer result = source.slice();
+            result.limit(len);
+            result.order(source.order());
+            source.position(source.position() + len);
+            return result;
+        }
+    }
+
+    private static class ExpectedDigest {
+        private final int mSignerIndex;
+        private final int mContentDigestAlgorithm;
+        private final byte[] mDigest;
+
+        private ExpectedDigest(int signerIndex, int contentDigestAlgorithm, byte[] digest) {
+            mSignerIndex = signerIndex;
+            mContentDigestAlgorithm = contentDigestAlgorithm;
+            mDigest = digest;
+        }
+    }
+
+    /**
+     * Chunk digests of one section of an APK, for each content digest algorithm. Immutable once
+     * computed.
+     */
+    private static class SectionDigests {
+        private final long mSectionSize;
+        private final int mChunkCount;
+        private final int[] mAlgorithms;
+        private final byte[][] mChunkDigests;
+
+        private SectionDigests(long sectionSize, int chunkCount, int[] algorithms) {
+            mSectionSize = sectionSize;
+            mChunkCount = chunkCount;
+            mAlgorithms = algorithms;
+            mChunkDigests = new byte[algorithms.length][];
+            for (int i = 0; i < algorithms.length; i++) {
+                mChunkDigests[i] = new byte[chunkCount * getDigestLength(algorithms[i])];
+            }
+        }
+
+        boolean covers(int[] algorithms) {
+            for (int algorithm : algorithms) {
+                if (indexOf(algorithm) == -1) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        byte[] getChunkDigests(int algorithm) {
+            return mChunkDigests[indexOf(algorithm)];
+        }
+
+        private int indexOf(int algorithm) {
+            for (int i = 0; i < mAlgorithms.length; i++) {
+                if (mAlgorithms[i] == algorithm) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Digests the chunks {@code [from, to)} of a section, splitting the range in halves down to
+     * {@link #CHUNKS_PER_TASK} chunks.
+     */
+    private static class ChunkDigestTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final DataSource mSection;
+        private final SectionDigests mDigests;
+        private final int mFrom;
+        private final int mTo;
+
+        ChunkDigestTask(DataSource section, SectionDigests digests, int from, int to) {
+            mSection = section;
+            mDigests = digests;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom > CHUNKS_PER_TASK) {
+                int middle = (mFrom + mTo) >>> 1;
+                invokeAll(new ChunkDigestTask(mSection, mDigests, mFrom, middle),
+                        new ChunkDigestTask(mSection, mDigests, middle, mTo));
+                return;
+            }
+            try {
+                digestChunks();
+            } catch (IOException e) {
+                throw new ChunkIOException(e);
+            }
+        }
+
+        private void digestChunks() throws IOException {
+            int[] algorithms = mDigests.mAlgorithms;
+            MessageDigest[] mds = new MessageDigest[algorithms.length];
+            for (int i = 0; i < algorithms.length; i++) {
+                mds[i] = newMessageDigest(algorithms[i]);
+            }
+            byte[] prefix = new byte[5];
+            prefix[0] = (byte) 0xa5;
+            ByteBuffer buf = ByteBufferPool.acquire(CHUNK_SIZE_BYTES);
+            try {
+                for (int chunk = mFrom; chunk < mTo; chunk++) {
+                    long offset = (long) chunk * CHUNK_SIZE_BYTES;
+                    int size = (int) Math.min(mSection.size() - offset, CHUNK_SIZE_BYTES);
+                    buf.clear();
+                    mSection.copyTo(offset, size, buf);
+                    byte[] sizeBytes = toUnsignedInt32LittleEndian(size);
+                    System.arraycopy(sizeBytes, 0, prefix, 1, 4);
+                    for (int i = 0; i < algorithms.length; i++) {
+                        int digestLength = getDigestLength(algorithms[i]);
+                        mds[i].update(prefix);
+                        mds[i].update(buf.array(), buf.arrayOffset(), size);
+                        try {
+                            mds[i].digest(mDigests.mChunkDigests[i], chunk * digestLength,
+                                    digestLength);
+                        } catch (DigestException e) {
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            } finally {
+                ByteBufferPool.release(buf);
+            }
+        }
+    }
+
+    /**
+     * Carries an {@link IOException} of a chunk out of the fork-join pool.
+     */
+    private static class ChunkIOException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        ChunkIOException(IOException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized IOException getCause() {
+            return (IOException) super.getCause();
+        }
+    }
+}
@@ -39,7 +39,7 @@ public class ApkUtils {
     public static final long APK_SIG_BLOCK_MAGIC_LO = 0x20676953204b5041L;
     private static final int APK_SIG_BLOCK_MIN_SIZE = 32;
 
-    private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    public static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
 
     public static final int APK_SIGNATURE_SCHEME_V2_CHANNEL_ID = 0x0010086a;
 
@@ -61,30 +61,59 @@ public class ApkUtils {
         ByteBuffer eocdBuf = eocdAndOffsetInFile.getFirst();
         long eocdOffset = eocdAndOffsetInFile.getSecond();
         eocdBuf.order(ByteOrder.LITTLE_ENDIAN);
-        long cdStartOffset = ZipUtils.getZipEocdCentralDirectoryOffset(eocdBuf);
-        if (cdStartOffset > eocdOffset) {
+
+        // In a ZIP64 archive the Central Directory is followed by the ZIP64 End of Central
+        // Directory record, which takes precedence over the possibly saturated 32-bit fields.
+        Pair<ByteBuffer, Long> zip64EocdAndOffsetInFile =
+                ZipUtils.findZip64EndOfCentralDirectoryRecord(apk, eocdOffset);
+        ByteBuffer zip64EocdBuf = null;
+        long zip64EocdOffset = -1;
+        long cdStartOffset;
+        long cdSizeBytes;
+        int cdRecordCount;
+        long cdEndLimit;
+        if (zip64EocdAndOffsetInFile != null) {
+            zip64EocdBuf = zip64EocdAndOffsetInFile.getFirst();
+            zip64EocdOffset = zip64EocdAndOffsetInFile.getSecond();
+            cdStartOffset = ZipUtils.getZip64EocdCentralDirectoryOffset(zip64EocdBuf);
+            cdSizeBytes = ZipUtils.getZip64EocdCentralDirectorySizeBytes(zip64EocdBuf);
+            long cdTotalRecordCount =
+                    ZipUtils.getZip64EocdCentralDirectoryTotalRecordCount(zip64EocdBuf);
+            if ((cdTotalRecordCount < 0) || (cdTotalRecordCount > Integer.MAX_VALUE)) {
+                throw new ZipFormatException(
+                        "ZIP Central Directory record count out of range: " + cdTotalRecordCount);
+            }
+            cdRecordCount = (int) cdTotalRecordCount;
+            cdEndLimit = zip64EocdOffset;
+        } else {
+            cdStartOffset = ZipUtils.getZipEocdCentralDirectoryOffset(eocdBuf);
+            cdSizeBytes = ZipUtils.getZipEocdCentralDirectorySizeBytes(eocdBuf);
+            cdRecordCount = ZipUtils.getZipEocdCentralDirectoryTotalRecordCount(eocdBuf);
+            cdEndLimit = eocdOffset;
+        }
+
+        if ((cdStartOffset < 0) || (cdStartOffset > cdEndLimit)) {
             throw new ZipFormatException(
                     "ZIP Central Directory start offset out of range: " + cdStartOffset
-                            + ". ZIP End of Central Directory offset: " + eocdOffset);
+                            + ". ZIP End of Central Directory offset: " + cdEndLimit);
         }
 
-        long cdSizeBytes = ZipUtils.getZipEocdCentralDirectorySizeBytes(eocdBuf);
         long cdEndOffset = cdStartOffset + cdSizeBytes;
-        if (cdEndOffset > eocdOffset) {
+        if ((cdSizeBytes < 0) || (cdEndOffset > cdEndLimit)) {
             throw new ZipFormatException(
                     "ZIP Central Directory overlaps with End of Central Directory"
                             + ". CD end: " + cdEndOffset
-                            + ", EoCD start: " + eocdOffset);
+                            + ", EoCD start: " + cdEndLimit);
         }
 
-        int cdRecordCount = ZipUtils.getZipEocdCentralDirectoryTotalRecordCount(eocdBuf);
-
         return new ZipSections(
                 cdStartOffset,
                 cdSizeBytes,
                 cdRecordCount,
                 eocdOffset,
-                eocdBuf);
+                eocdBuf,
+                zip64EocdOffset,
+                zip64EocdBuf);
     }
 
     /**
@@ -96,6 +125,8 @@ public class ApkUtils {
         private final int mCentralDirectoryRecordCount;
         private final long mEocdOffset;
         private final ByteBuffer mEocd;
+        private final long mZip64EocdOffset;
+        private final ByteBuffer mZip64Eocd;
 
         public ZipSections(
                 long centralDirectoryOffset,
@@ -103,16 +134,31 @@ public class ApkUtils {
                 int centralDirectoryRecordCount,
                 long eocdOffset,
                 ByteBuffer eocd) {
+            this(centralDirectoryOffset, centralDirectorySizeBytes, centralDirectoryRecordCount,
+                    eocdOffset, eocd, -1, null);
+        }
+
+        public ZipSections(
+                long centralDirectoryOffset,
+                long centralDirectorySizeBytes,
+                int centralDirectoryRecordCount,
+                long eocdOffset,
+                ByteBuffer eocd,
+                long zip64EocdOffset,
+                ByteBuffer zip64Eocd) {
             mCentralDirectoryOffset = centralDirectoryOffset;
             mCentralDirectorySizeBytes = centralDirectorySizeBytes;
             mCentralDirectoryRecordCount = centralDirectoryRecordCount;
             mEocdOffset = eocdOffset;
             mEocd = eocd;
+            mZip64EocdOffset = zip64EocdOffset;
+            mZip64Eocd = zip64Eocd;
         }
 
         /**
          * Returns the start offset of the ZIP Central Directory. This value is taken from the
-         * ZIP End of Central Directory record.
+         * ZIP64 End of Central Directory record if the APK has one, otherwise from the ZIP End of
+         * Central Directory record.
          */
         public long getZipCentralDirectoryOffset() {
             return mCentralDirectoryOffset;
@@ -148,6 +194,39 @@ public class ApkUtils {
         public ByteBuffer getZipEndOfCentralDirectory() {
             return mEocd;
         }
+
+        /**
+         * Returns whether the APK is a ZIP64 archive.
+         */
+        public boolean isZip64() {
+            return mZip64EocdOffset != -1;
+        }
+
+        /**
+         * Returns the start offset of the ZIP64 End of Central Directory record, or {@code -1} if
+         * the APK is not a ZIP64 archive. The record is followed by the ZIP64 End of Central
+         * Directory locator and the ZIP End of Central Directory record.
+         */
+        public long getZip64EndOfCentralDirectoryOffset() {
+            return mZip64EocdOffset;
+        }
+
+        /**
+         * Returns the contents of the ZIP64 End of Central Directory record, or {@code null} if
+         * the APK is not a ZIP64 archive.
+         */
+        public ByteBuffer getZip64EndOfCentralDirectory() {
+            return mZip64Eocd;
+        }
+
+        /**
+         * Returns the offset the ZIP Central Directory is expected to end at: the start of the
+         * ZIP64 End of Central Directory record if the APK has one, otherwise the start of the ZIP
+         * End of Central Directory record.
+         */
+        public long getZipCentralDirectoryEndLimit() {
+            return isZip64() ? mZip64EocdOffset : mEocdOffset;
+        }
     }
 
     /**
@@ -185,10 +264,7 @@ public class ApkUtils {
         apkSigningBlockBuf.order(ByteOrder.LITTLE_ENDIAN);
 
         // Find the APK Signature Scheme v2 Block inside the APK Signing Block.
-        HashMap<Integer, ByteBuffer> apkSignatureSchemeV2Block =
-                findApkSignatureSchemeV2Block(apkSigningBlockBuf);
-
-        return apkSignatureSchemeV2Block.get(APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+        return findApkSigningBlockValue(apkSigningBlockBuf, APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
     }
 
     /**
@@ -209,7 +285,7 @@ public class ApkUtils {
         long centralDirStartOffset = zipSections.getZipCentralDirectoryOffset();
         long centralDirEndOffset =
                 centralDirStartOffset + zipSections.getZipCentralDirectorySizeBytes();
-        long eocdStartOffset = zipSections.getZipEndOfCentralDirectoryOffset();
+        long eocdStartOffset = zipSections.getZipCentralDirectoryEndLimit();
         if (centralDirEndOffset != eocdStartOffset) {
             throw new SignatureNotFoundException(
                     "ZIP Central Directory is not immediately followed by End of Central Directory"
@@ -298,6 +374,137 @@ public class ApkUtils {
         return map;
     }
 
+    /**
+     * Returns the value of the ID-value pair with the provided ID in the APK Signing Block, or
+     * {@code null} if there is no such pair. When the ID occurs more than once the last pair wins,
+     * as it does in {@link #findApkSignatureSchemeV2Block(ByteBuffer)}.
+     * <p>
+     * <p>Unlike {@link #findApkSignatureSchemeV2Block(ByteBuffer)} the other pairs are only
+     * stepped over: no key is boxed and no buffer is created except the returned one.
+     */
+    public static ByteBuffer findApkSigningBlockValue(ByteBuffer apkSigningBlock, int id)
+            throws SignatureNotFoundException {
+        int entryOffset = findApkSigningBlockEntry(apkSigningBlock, id);
+        if (entryOffset == -1) {
+            return null;
+        }
+        int len = (int) apkSigningBlock.getLong(entryOffset);
+        return sliceFromTo(apkSigningBlock, entryOffset + 12, entryOffset + 8 + len);
+    }
+
+    /**
+     * Returns the offset in the APK Signing Block of the ID-value pair with the provided ID, or
+     * {@code -1} if there is no such pair. The offset is that of the pair's uint64 size field, the
+     * ID follows at {@code +8} and the value at {@code +12}. When the ID occurs more than once the
+     * offset of the last pair is returned.
+     * <p>
+     * <p>The pairs are walked with absolute reads, the buffer's position and limit are not changed.
+     */
+    public static int findApkSigningBlockEntry(ByteBuffer apkSigningBlock, int id)
+            throws SignatureNotFoundException {
+        checkByteOrderLittleEndian(apkSigningBlock);
+        // FORMAT:
+        // OFFSET       DATA TYPE  DESCRIPTION
+        // * @+0  bytes uint64:    size in bytes (excluding this field)
+        // * @+8  bytes pairs
+        // * @-24 bytes uint64:    size in bytes (same as the one above)
+        // * @-16 bytes uint128:   magic
+        int pairsEnd = apkSigningBlock.capacity() - 24;
+        if (pairsEnd < 8) {
+            throw new SignatureNotFoundException(
+                    "APK Signing Block too small: " + apkSigningBlock.capacity());
+        }
+
+        int result = -1;
+        int entryCount = 0;
+        int position = 8;
+        while (position < pairsEnd) {
+            entryCount++;
+            if (pairsEnd - position < 8) {
+                throw new SignatureNotFoundException(
+                        "Insufficient data to read size of APK Signing Block entry #" + entryCount);
+            }
+            long lenLong = apkSigningBlock.getLong(position);
+            if ((lenLong < 4) || (lenLong > Integer.MAX_VALUE)) {
+                throw new SignatureNotFoundException(
+                        "APK Signing Block entry #" + entryCount
+                                + " size out of range: " + lenLong);
+            }
+            int len = (int) lenLong;
+            if (len > pairsEnd - position - 8) {
+                throw new SignatureNotFoundException(
+                        "APK Signing Block entry #" + entryCount + " size out of range: " + len
+                                + ", available: " + (pairsEnd - position - 8));
+            }
+            if (apkSigningBlock.getInt(position + 8) == id) {
+                result = position;
+            }
+            position += 8 + len;
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the value of the ID-value pair with the provided ID in the APK Signing Block, or
+     * {@code null} if there is no such pair. When the ID occurs more than once the last pair wins.
+     * <p>
+     * <p>Unlike {@link #findApkSigningBlockValue(ByteBuffer, int)} the block does not need to be
+     * in memory: only the 12 byte header of each pair is read, the values of the other pairs
+     * (signatures, certificate chains) are skipped, and only the requested value is read.
+     *
+     * @param apkSigningBlock the APK Signing Block as returned by
+     *                        {@link #findApkSigningBlock(DataSource, ZipSections)}
+     */
+    public static ByteBuffer findApkSigningBlockValue(DataSource apkSigningBlock, int id)
+            throws IOException, SignatureNotFoundException {
+        long pairsEnd = apkSigningBlock.size() - 24;
+        if (pairsEnd < 8) {
+            throw new SignatureNotFoundException(
+                    "APK Signing Block too small: " + apkSigningBlock.size());
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(12);
+        header.order(ByteOrder.LITTLE_ENDIAN);
+        long resultOffset = -1;
+        int resultSize = 0;
+        int entryCount = 0;
+        long position = 8;
+        while (position < pairsEnd) {
+            entryCount++;
+            if (pairsEnd - position < 12) {
+                throw new SignatureNotFoundException(
+                        "Insufficient data to read header of APK Signing Block entry #"
+                                + entryCount);
+            }
+            header.clear();
+            apkSigningBlock.copyTo(position, 12, header);
+            long lenLong = header.getLong(0);
+            if ((lenLong < 4) || (lenLong > Integer.MAX_VALUE)) {
+                throw new SignatureNotFoundException(
+                        "APK Signing Block entry #" + entryCount
+                                + " size out of range: " + lenLong);
+            }
+            if (lenLong > pairsEnd - position - 8) {
+                throw new SignatureNotFoundException(
+                        "APK Signing Block entry #" + entryCount + " size out of range: " + lenLong
+                                + ", available: " + (pairsEnd - position - 8));
+            }
+            if (header.getInt(8) == id) {
+                resultOffset = position + 12;
+                resultSize = (int) lenLong - 4;
+            }
+            position += 8 + lenLong;
+        }
+
+        if (resultOffset == -1) {
+            return null;
+        }
+        ByteBuffer result = apkSigningBlock.getByteBuffer(resultOffset, resultSize);
+        result.order(ByteOrder.LITTLE_ENDIAN);
+        return result;
+    }
+
     /**
      * Returns new byte buffer whose content is a shared subsequence of this buffer's content
      * between the specified start (inclusive) and end (exclusive) positions. As opposed to
@@ -369,6 +576,12 @@ public class ApkUtils {
      * @return useful data
      */
     public static byte[] getBytes(final ByteBuffer byteBuffer) {
+        if (!byteBuffer.hasArray()) {
+            // direct or read-only, e.g. a view over a memory-mapped APK
+            final byte[] result = new byte[byteBuffer.remaining()];
+            byteBuffer.duplicate().get(result);
+            return result;
+        }
         final byte[] array = byteBuffer.array();
         final int arrayOffset = byteBuffer.arrayOffset();
         return Arrays.copyOfRange(array, arrayOffset + byteBuffer.position(),
@@ -378,7 +591,24 @@ public class ApkUtils {
 
     public static void outputChannelApk(ByteBuffer apk, String inputApkFile, String outputApkDir, String channelName) throws IOException {
 
+        File channelApkFile = getChannelApkFile(inputApkFile, outputApkDir, channelName);
+
+        Log.log("output: " + channelApkFile.getPath());
+        try {
+            FileOutputStream fileOutputStream = new FileOutputStream(channelApkFile);
+            fileOutputStream.write(apk.array());
+            fileOutputStream.close();
+            fileOutputStream.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Returns the file a channel APK is written to: {@code outputApkDir} followed by
+     * {@code [apk name]-[channel]-[date].apk}.
+     */
+    public static File getChannelApkFile(String inputApkFile, String outputApkDir, String channelName) {
         File apkFile = new File(inputApkFile);
         String name = apkFile.getName();
         SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
@@ -389,15 +619,7 @@ public class ApkUtils {
         }
         name += "-" + channelName + "-" + date + ".apk";
 
-        Log.log("output: " + (outputApkDir + name));
-        try {
-            FileOutputStream fileOutputStream = new FileOutputStream(outputApkDir + name);
-            fileOutputStream.write(apk.array());
-            fileOutputStream.close();
-            fileOutputStream.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return new File(outputApkDir + name);
     }
 
 
@@ -0,0 +1,228 @@
+package com.branch.v2.read.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * {@link DataSink} which hands the consumed data to a dedicated writer thread, so the caller can
+ * read the next chunk of its input while the previous one is being written.
+ * <p>
+ * <p>Consumed data is copied into one of a fixed number of buffers, a full buffer is queued for
+ * the writer thread which passes it on to the delegate sink. When all buffers are queued or being
+ * written, {@code consume} blocks until one is free again: memory use is bounded by
+ * {@code bufferCount * bufferSize}, whatever the relative speed of caller and delegate.
+ * <p>
+ * <p>A failure of the delegate, or an interrupt of the writer thread, is rethrown by the next
+ * {@code consume}, {@link #flush()} or {@link #close()}. The delegate is only ever called from the writer thread. Instances are not
+ * safe for use by multiple producer threads.
+ */
+public class AsyncDataSink implements DataSink, Closeable {
+
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+
+    private static final ByteBuffer END_OF_DATA = ByteBuffer.allocate(0);
+
+    private final DataSink mDelegate;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+    private final BlockingQueue<ByteBuffer> mFullBuffers;
+    private final Thread mWriterThread;
+    private final Object mLock = new Object();
+
+    /**
+     * Number of buffers queued or being written, guarded by {@link #mLock}.
+     */
+    private int mPendingBuffers;
+    private volatile Throwable mFailure;
+    private ByteBuffer mCurrentBuffer;
+    private boolean mClosed;
+
+    public AsyncDataSink(DataSink delegate) {
+        this(delegate, DEFAULT_BUFFER_COUNT, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Constructs a new {@code AsyncDataSink} and starts its writer thread.
+     *
+     * @param bufferCount number of buffers, at least 2 for reads and writes to overlap
+     * @param bufferSize  size (in bytes) of each buffer
+     */
+    public AsyncDataSink(DataSink delegate, int bufferCount, int bufferSize) {
+        if (bufferCount < 1) {
+            throw new IllegalArgumentException("bufferCount: " + bufferCount);
+        }
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("bufferSize: " + bufferSize);
+        }
+        mDelegate = delegate;
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        mFullBuffers = new ArrayBlockingQueue<>(bufferCount + 1);
+        for (int i = 0; i < bufferCount; i++) {
+            mFreeBuffers.add(ByteBuffer.allocate(bufferSize));
+        }
+        mWriterThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeBuffers();
+            }
+        }, "AsyncDataSink-writer");
+        mWriterThread.setDaemon(true);
+        mWriterThread.start();
+    }
+
+    @Override
+    public void consume(byte[] buf, int offset, int length) throws IOException {
+        consume(ByteBuffer.wrap(buf, offset, length));
+    }
+
+    @Override
+    public void consume(ByteBuffer buf) throws IOException {
+        checkNotClosed();
+        checkFailure();
+        while (buf.hasRemaining()) {
+            if (mCurrentBuffer == null) {
+                // a stopped writer thread no longer frees buffers
+                checkFailure();
+                mCurrentBuffer = takeFreeBuffer();
+            }
+            int chunkSize = Math.min(buf.remaining(), mCurrentBuffer.remaining());
+            ByteBuffer chunk = buf.slice();
+            chunk.limit(chunkSize);
+            mCurrentBuffer.put(chunk);
+            buf.position(buf.position() + chunkSize);
+            if (!mCurrentBuffer.hasRemaining()) {
+                queueCurrentBuffer();
+            }
+        }
+    }
+
+    /**
+     * Blocks until all data consumed so far has been passed on to the delegate sink.
+     */
+    public void flush() throws IOException {
+        checkNotClosed();
+        if (mCurrentBuffer != null && mCurrentBuffer.position() > 0) {
+            queueCurrentBuffer();
+        }
+        synchronized (mLock) {
+            while (mPendingBuffers > 0 && mFailure == null) {
+                try {
+                    mLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while flushing");
+                }
+            }
+        }
+        checkFailure();
+    }
+
+    /**
+     * Flushes the remaining data and stops the writer thread. The delegate sink is not closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            mClosed = true;
+            // a stopped writer thread may have left the queue full
+            mFullBuffers.offer(END_OF_DATA);
+        }
+    }
+
+    private ByteBuffer takeFreeBuffer() throws IOException {
+        try {
+            return mFreeBuffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a free buffer");
+        }
+    }
+
+    private void queueCurrentBuffer() {
+        mCurrentBuffer.flip();
+        synchronized (mLock) {
+            mPendingBuffers++;
+        }
+        // never blocks: there are more slots in the queue than buffers
+        mFullBuffers.add(mCurrentBuffer);
+        mCurrentBuffer = null;
+    }
+
+    private void writeBuffers() {
+        while (true) {
+            ByteBuffer buf;
+            try {
+                buf = mFullBuffers.take();
+            } catch (InterruptedException e) {
+                mFailure = e;
+                releaseBuffers();
+                return;
+            }
+            if (buf == END_OF_DATA) {
+                return;
+            }
+            // after a failure the remaining buffers are dropped, but still recycled so that the
+            // producer never blocks forever
+            if (mFailure == null) {
+                try {
+                    mDelegate.consume(buf);
+                } catch (IOException | RuntimeException e) {
+                    mFailure = e;
+                }
+            }
+            buf.clear();
+            mFreeBuffers.add(buf);
+            synchronized (mLock) {
+                mPendingBuffers--;
+                mLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Recycles the queued buffers and wakes up the producer, once the writer thread stops before
+     * the end of the data.
+     */
+    private void releaseBuffers() {
+        ByteBuffer buf;
+        while ((buf = mFullBuffers.poll()) != null) {
+            if (buf != END_OF_DATA) {
+                buf.clear();
+                mFreeBuffers.add(buf);
+            }
+        }
+        synchronized (mLock) {
+            mPendingBuffers = 0;
+            mLock.notifyAll();
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable failure = mFailure;
+        if (failure == null) {
+            return;
+        }
+        if (failure instanceof IOException) {
+            throw new IOException("Asynchronous write failed", failure);
+        }
+        if (failure instanceof InterruptedException) {
+            throw new InterruptedIOException("Writer thread interrupted");
+        }
+        throw new RuntimeException("Asynchronous write failed", failure);
+    }
+
+    private void checkNotClosed() {
+        if (mClosed) {
+            throw new IllegalStateException("Closed");
+        }
+    }
+}
@@ -66,12 +66,18 @@ public class ByteArrayDataSink implements ReadableDataSink {
         }
 
         ensureAvailable(buf.remaining());
-        byte[] tmp = new byte[Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE)];
-        while (buf.hasRemaining()) {
-            int chunkSize = Math.min(buf.remaining(), tmp.length);
-            buf.get(tmp, 0, chunkSize);
-            System.arraycopy(tmp, 0, mArray, mSize, chunkSize);
-            mSize += chunkSize;
+        ByteBuffer pooled =
+                ByteBufferPool.acquire(Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE));
+        try {
+            byte[] tmp = pooled.array();
+            while (buf.hasRemaining()) {
+                int chunkSize = Math.min(buf.remaining(), pooled.limit());
+                buf.get(tmp, 0, chunkSize);
+                System.arraycopy(tmp, 0, mArray, mSize, chunkSize);
+                mSize += chunkSize;
+            }
+        } finally {
+            ByteBufferPool.release(pooled);
         }
     }
 
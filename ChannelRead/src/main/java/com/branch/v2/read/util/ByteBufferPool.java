@@ -0,0 +1,111 @@
+package com.branch.v2.read.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Per-thread pool of scratch buffers for chunked {@link DataSource} and {@link DataSink}
+ * operations, so that feeding the same regions of an APK once per channel does not allocate a
+ * new buffer for every call.
+ * <p>
+ * <p>Buffers are sized in powers of two from {@link #MIN_POOLED_SIZE} to
+ * {@link #MAX_POOLED_SIZE} bytes, and each thread keeps up to {@link #MAX_BUFFERS_PER_SIZE}
+ * released buffers of each size. Nothing is shared between threads, so acquiring and releasing
+ * takes no lock, and a worker of a batch reuses the same few buffers for every channel it writes.
+ * Larger requests are allocated and dropped on release.
+ * <p>
+ * <p>Buffers are heap buffers: the sinks of this package write arrays, which a direct buffer would
+ * have to be copied into first, and {@link java.nio.channels.FileChannel} already reuses its own
+ * direct buffers for heap buffer I/O.
+ * <p>
+ * <p>A buffer must be released by the thread that acquired it, at most once, and must not be
+ * used after being released.
+ */
+public final class ByteBufferPool {
+
+    public static final int MIN_POOLED_SIZE = 4 * 1024;
+    public static final int MAX_POOLED_SIZE = 1024 * 1024;
+    public static final int MAX_BUFFERS_PER_SIZE = 4;
+
+    private static final int MIN_SIZE_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_COUNT =
+            Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SIZE_SHIFT + 1;
+
+    private static final ThreadLocal<Pool> POOL = new ThreadLocal<Pool>() {
+        @Override
+        protected Pool initialValue() {
+            return new Pool();
+        }
+    };
+
+    private ByteBufferPool() {
+    }
+
+    /**
+     * Returns a buffer of at least {@code size} bytes, backed by an array, with its position at
+     * 0 and its limit at {@code size}. The content is undefined.
+     */
+    public static ByteBuffer acquire(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        if (size > MAX_POOLED_SIZE) {
+            return ByteBuffer.allocate(size);
+        }
+        int sizeIndex = getSizeIndex(size);
+        ByteBuffer buf = POOL.get().poll(sizeIndex);
+        if (buf == null) {
+            buf = ByteBuffer.allocate(MIN_POOLED_SIZE << sizeIndex);
+        }
+        buf.limit(size);
+        return buf;
+    }
+
+    /**
+     * Returns a buffer obtained from {@link #acquire(int)} to the calling thread's pool.
+     */
+    public static void release(ByteBuffer buf) {
+        int capacity = buf.capacity();
+        if (capacity > MAX_POOLED_SIZE || capacity < MIN_POOLED_SIZE
+                || Integer.bitCount(capacity) != 1 || !buf.hasArray()) {
+            return;
+        }
+        buf.clear();
+        buf.order(ByteOrder.BIG_ENDIAN);
+        POOL.get().offer(getSizeIndex(capacity), buf);
+    }
+
+    private static int getSizeIndex(int size) {
+        if (size <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        // index of the smallest power of two >= size, relative to MIN_POOLED_SIZE
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SIZE_SHIFT;
+    }
+
+    private static final class Pool {
+        private final ByteBuffer[][] mBuffers = new ByteBuffer[SIZE_COUNT][MAX_BUFFERS_PER_SIZE];
+        private final int[] mCounts = new int[SIZE_COUNT];
+
+        ByteBuffer poll(int sizeIndex) {
+            int count = mCounts[sizeIndex];
+            if (count == 0) {
+                return null;
+            }
+            count--;
+            ByteBuffer buf = mBuffers[sizeIndex][count];
+            mBuffers[sizeIndex][count] = null;
+            mCounts[sizeIndex] = count;
+            return buf;
+        }
+
+        void offer(int sizeIndex, ByteBuffer buf) {
+            int count = mCounts[sizeIndex];
+            if (count == MAX_BUFFERS_PER_SIZE) {
+                return;
+            }
+            mBuffers[sizeIndex][count] = buf;
+            mCounts[sizeIndex] = count + 1;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.branch.v2.read.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+/**
+ * {@link DataSource} representing the concatenation of other data sources, for example the
+ * unchanged regions of a base APK and the records synthesized for one of its channel APKs, as one
+ * logical file that is never materialized.
+ * <p>
+ * <p>A chunk is served by the data sources it overlaps, in time proportional to its size: chunks
+ * within one data source are delegated as they are, {@link #getByteBuffer(long, int)} copies only
+ * chunks crossing a boundary. Slices are chains of slices of the overlapped data sources.
+ * <p>
+ * <p>The sizes of the data sources are taken once, at construction. Instances are safe for use by
+ * multiple threads if the data sources are.
+ */
+public class ChainedDataSource implements DataSource {
+
+    private final DataSource[] mSources;
+    // mSourceOffsets[i] is the offset of mSources[i] in this data source, the last element is
+    // the size of this data source
+    private final long[] mSourceOffsets;
+
+    public ChainedDataSource(DataSource... sources) {
+        mSources = sources.clone();
+        mSourceOffsets = new long[sources.length + 1];
+        for (int i = 0; i < sources.length; i++) {
+            mSourceOffsets[i + 1] = mSourceOffsets[i] + sources[i].size();
+        }
+    }
+
+    @Override
+    public long size() {
+        return mSourceOffsets[mSources.length];
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return;
+        }
+        int index = indexOf(offset);
+        while (size > 0) {
+            long offsetInSource = offset - mSourceOffsets[index];
+            long chunkSize = Math.min(size, mSources[index].size() - offsetInSource);
+            mSources[index].feed(offsetInSource, chunkSize, sink);
+            offset += chunkSize;
+            size -= chunkSize;
+            index++;
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+        int index = indexOf(offset);
+        long offsetInSource = offset - mSourceOffsets[index];
+        if (offsetInSource + size <= mSources[index].size()) {
+            return mSources[index].getByteBuffer(offsetInSource, size);
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return;
+        }
+        int index = indexOf(offset);
+        while (size > 0) {
+            long offsetInSource = offset - mSourceOffsets[index];
+            int chunkSize = (int) Math.min(size, mSources[index].size() - offsetInSource);
+            mSources[index].copyTo(offsetInSource, chunkSize, dest);
+            offset += chunkSize;
+            size -= chunkSize;
+            index++;
+        }
+    }
+
+    @Override
+    public DataSource slice(long offset, long size) {
+        checkChunkValid(offset, size);
+        if ((offset == 0) && (size == size())) {
+            return this;
+        }
+        if (size == 0) {
+            return new ChainedDataSource();
+        }
+        int first = indexOf(offset);
+        int last = indexOf(offset + size - 1);
+        long offsetInFirst = offset - mSourceOffsets[first];
+        if (first == last) {
+            return mSources[first].slice(offsetInFirst, size);
+        }
+        DataSource[] sources = Arrays.copyOfRange(mSources, first, last + 1);
+        sources[0] = mSources[first].slice(offsetInFirst,
+                mSources[first].size() - offsetInFirst);
+        sources[sources.length - 1] = mSources[last].slice(0,
+                offset + size - mSourceOffsets[last]);
+        return new ChainedDataSource(sources);
+    }
+
+    /**
+     * Transfers the specified chunk from this data source into the provided channel. Chunks of
+     * {@link FileChannelDataSource}s are transferred by the operating system, see
+     * {@link FileChannelDataSource#transferTo(long, long, WritableByteChannel)}, the others are
+     * written in bounded chunks.
+     *
+     * @param offset index (in bytes) at which the chunk starts inside data source
+     * @param size   size (in bytes) of the chunk
+     */
+    public void transferTo(long offset, long size, WritableByteChannel target) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return;
+        }
+        int index = indexOf(offset);
+        while (size > 0) {
+            DataSource source = mSources[index];
+            long offsetInSource = offset - mSourceOffsets[index];
+            long chunkSize = Math.min(size, source.size() - offsetInSource);
+            if (source instanceof FileChannelDataSource) {
+                ((FileChannelDataSource) source).transferTo(offsetInSource, chunkSize, target);
+            } else if (source instanceof ChainedDataSource) {
+                ((ChainedDataSource) source).transferTo(offsetInSource, chunkSize, target);
+            } else {
+                writeTo(source, offsetInSource, chunkSize, target);
+            }
+            offset += chunkSize;
+            size -= chunkSize;
+            index++;
+        }
+    }
+
+    private static void writeTo(DataSource source, long offset, long size,
+                                WritableByteChannel target) throws IOException {
+        ByteBuffer buf = ByteBufferPool.acquire(
+                (int) Math.min(size, ByteBufferPool.MAX_POOLED_SIZE));
+        try {
+            while (size > 0) {
+                int chunkSize = (int) Math.min(size, buf.capacity());
+                buf.clear();
+                source.copyTo(offset, chunkSize, buf);
+                buf.flip();
+                while (buf.hasRemaining()) {
+                    target.write(buf);
+                }
+                offset += chunkSize;
+                size -= chunkSize;
+            }
+        } finally {
+            ByteBufferPool.release(buf);
+        }
+    }
+
+    /**
+     * Returns the index of the data source holding the byte at {@code offset}, which must be
+     * less than the size of this data source.
+     */
+    private int indexOf(long offset) {
+        int index = Arrays.binarySearch(mSourceOffsets, offset);
+        if (index < 0) {
+            return -index - 2;
+        }
+        // skip empty data sources starting at the same offset
+        while (mSourceOffsets[index + 1] == offset) {
+            index++;
+        }
+        return index;
+    }
+
+    private void checkChunkValid(long offset, long size) {
+        long sourceSize = size();
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        if (offset > sourceSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") > source size (" + sourceSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > sourceSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size
+                            + ") > source size (" + sourceSize + ")");
+        }
+    }
+}
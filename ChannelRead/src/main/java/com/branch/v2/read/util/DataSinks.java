@@ -43,6 +43,15 @@ public abstract class DataSinks {
         return new RandomAccessFileDataSink(file);
     }
 
+    /**
+     * Returns a {@link DataSink} which passes received data on to the provided sink from a
+     * dedicated writer thread, through a bounded number of buffers. The returned sink must be
+     * closed to flush the data and stop the thread.
+     */
+    public static AsyncDataSink newAsyncDataSink(DataSink sink) {
+        return new AsyncDataSink(sink);
+    }
+
     /**
      * Returns a new in-memory {@link DataSink} which exposes all data consumed so far via the
      * {@link DataSource} interface.
@@ -17,8 +17,10 @@
 package com.branch.v2.read.util;
 
 
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * Utility methods for working with {@link DataSource} abstraction.
@@ -59,4 +61,54 @@ public abstract class DataSources {
         }
         return new RandomAccessFileDataSource(file, offset, size);
     }
+
+    /**
+     * Returns a {@link DataSource} backed by the provided {@link FileChannel}. The data source
+     * only reads at explicit positions and may be shared by multiple threads. Changes to the
+     * file, including changes to size of file, will be visible in the data source.
+     */
+    public static DataSource asDataSource(FileChannel channel) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        return new FileChannelDataSource(channel);
+    }
+
+    /**
+     * Returns a {@link DataSource} backed by the provided region of the {@link FileChannel}.
+     * Changes to the file will be visible in the data source.
+     */
+    public static DataSource asDataSource(FileChannel channel, long offset, long size) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        return new FileChannelDataSource(channel, offset, size);
+    }
+
+    /**
+     * Returns a {@link DataSource} backed by a memory mapping of the whole file of the provided
+     * {@link FileChannel}. Chunks are served as views over the mapping and the data source may be
+     * shared by multiple threads. Changes to size of file will not be visible in the data source.
+     */
+    public static DataSource asDataSource(FileChannel channel, FileChannel.MapMode mode)
+            throws IOException {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        return new MappedByteBufferDataSource(channel, mode);
+    }
+
+    /**
+     * Returns a {@link DataSource} representing the concatenation of the provided data sources,
+     * see {@link ChainedDataSource}. Changes to their sizes will not be visible in the returned
+     * data source.
+     */
+    public static ChainedDataSource link(DataSource... sources) {
+        for (DataSource source : sources) {
+            if (source == null) {
+                throw new NullPointerException();
+            }
+        }
+        return new ChainedDataSource(sources);
+    }
 }
@@ -0,0 +1,198 @@
+package com.branch.v2.read.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * {@link DataSource} backed by a {@link FileChannel}.
+ * <p>
+ * <p>All reads are done at explicit positions ({@code pread}), this data source never touches the
+ * channel's position. Unlike {@link RandomAccessFileDataSource} there is thus no shared file
+ * pointer to lock, and any number of threads may read the same file concurrently.
+ */
+public class FileChannelDataSource implements DataSource {
+
+    private static final int MAX_READ_CHUNK_SIZE = 65536;
+
+    private final FileChannel mChannel;
+    private final long mOffset;
+    private final long mSize;
+
+    /**
+     * Constructs a new {@code FileChannelDataSource} based on the data contained in the whole
+     * file. Changes to the contents of the file, including the size of the file, will be visible
+     * in this data source.
+     */
+    public FileChannelDataSource(FileChannel channel) {
+        mChannel = channel;
+        mOffset = 0;
+        mSize = -1;
+    }
+
+    /**
+     * Constructs a new {@code FileChannelDataSource} based on the data contained in the specified
+     * region of the provided file. Changes to the contents of the file will be visible in this
+     * data source.
+     */
+    public FileChannelDataSource(FileChannel channel, long offset, long size) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        mChannel = channel;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    @Override
+    public long size() {
+        if (mSize == -1) {
+            try {
+                return mChannel.size();
+            } catch (IOException e) {
+                return 0;
+            }
+        } else {
+            return mSize;
+        }
+    }
+
+    @Override
+    public FileChannelDataSource slice(long offset, long size) {
+        long sourceSize = size();
+        checkChunkValid(offset, size, sourceSize);
+        if ((offset == 0) && (size == sourceSize)) {
+            return this;
+        }
+
+        return new FileChannelDataSource(mChannel, mOffset + offset, size);
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        long sourceSize = size();
+        checkChunkValid(offset, size, sourceSize);
+        if (size == 0) {
+            return;
+        }
+
+        long chunkOffsetInFile = mOffset + offset;
+        long remaining = size;
+        int bufSize = (int) Math.min(remaining, MAX_READ_CHUNK_SIZE);
+        ByteBuffer buf = ByteBufferPool.acquire(bufSize);
+        try {
+            while (remaining > 0) {
+                int chunkSize = (int) Math.min(remaining, bufSize);
+                buf.clear();
+                buf.limit(chunkSize);
+                readFully(chunkOffsetInFile, buf);
+                buf.flip();
+                sink.consume(buf);
+                chunkOffsetInFile += chunkSize;
+                remaining -= chunkSize;
+            }
+        } finally {
+            ByteBufferPool.release(buf);
+        }
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        long sourceSize = size();
+        checkChunkValid(offset, size, sourceSize);
+        if (size == 0) {
+            return;
+        }
+
+        int prevLimit = dest.limit();
+        try {
+            dest.limit(dest.position() + size);
+            readFully(mOffset + offset, dest);
+        } finally {
+            dest.limit(prevLimit);
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Transfers the specified chunk from this data source into the provided channel, see
+     * {@link RandomAccessFileDataSource#transferTo(long, long, WritableByteChannel)}.
+     *
+     * @param offset index (in bytes) at which the chunk starts inside data source
+     * @param size   size (in bytes) of the chunk
+     */
+    public void transferTo(long offset, long size, WritableByteChannel target) throws IOException {
+        long sourceSize = size();
+        checkChunkValid(offset, size, sourceSize);
+
+        long chunkOffsetInFile = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            long chunkSize = mChannel.transferTo(chunkOffsetInFile, remaining, target);
+            if (chunkSize <= 0) {
+                throw new EOFException("Unexpected end of file at offset " + chunkOffsetInFile);
+            }
+            chunkOffsetInFile += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    /**
+     * Reads from the file at {@code offsetInFile} until {@code dest} has no space remaining.
+     */
+    private void readFully(long offsetInFile, ByteBuffer dest) throws IOException {
+        while (dest.hasRemaining()) {
+            int chunkSize = mChannel.read(dest, offsetInFile);
+            if (chunkSize < 0) {
+                throw new EOFException("Unexpected end of file at offset " + offsetInFile);
+            }
+            offsetInFile += chunkSize;
+        }
+    }
+
+    private static void checkChunkValid(long offset, long size, long sourceSize) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        if (offset > sourceSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") > source size (" + sourceSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > sourceSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size
+                            + ") > source size (" + sourceSize + ")");
+        }
+    }
+
+    public void close() {
+        if (mChannel == null) {
+            return;
+        }
+        try {
+            mChannel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -1,15 +1,34 @@
 package com.branch.v2.read.util;
 
+import java.io.PrintStream;
+
 public class Log {
 
     private static boolean debug = true;
 
+    private static PrintStream output;
+
+    public static void setDebug(boolean debug) {
+        Log.debug = debug;
+    }
+
+    /**
+     * Sets the stream logs are printed to, {@code null} for {@link System#out}.
+     */
+    public static void setOutput(PrintStream output) {
+        Log.output = output;
+    }
+
     public static void log(String log) {
         if (!debug) {
             return;
 
         }
-        System.out.println(log);
+        PrintStream out = output;
+        if (out == null) {
+            out = System.out;
+        }
+        out.println(log);
     }
 
 }
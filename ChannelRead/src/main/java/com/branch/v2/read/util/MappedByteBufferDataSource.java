@@ -0,0 +1,173 @@
+package com.branch.v2.read.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DataSource} backed by a memory-mapped file.
+ * <p>
+ * <p>The file is mapped once, in segments of at most 1 GB because a single
+ * {@link MappedByteBuffer} cannot address more than 2 GB. {@link #getByteBuffer(long, int)},
+ * {@link #feed(long, long, DataSink)} and {@link #copyTo(long, int, ByteBuffer)} hand out views
+ * over the mapping, so no buffer is allocated per call unless a chunk spans two segments.
+ * Slices share the mapping, and so may any number of threads.
+ * <p>
+ * <p>The views are read-only, also for a {@link FileChannel.MapMode#READ_WRITE} mapping: as for
+ * the other data sources, changes to a returned buffer never reach the file.
+ */
+public class MappedByteBufferDataSource implements DataSource {
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    private final MappedByteBuffer[] mSegments;
+    private final int mSegmentShift;
+    private final long mOffset;
+    private final long mSize;
+
+    /**
+     * Constructs a new {@code MappedByteBufferDataSource} mapping the whole file of the provided
+     * channel. Later changes to the size of the file are not visible in this data source.
+     */
+    public MappedByteBufferDataSource(FileChannel channel, FileChannel.MapMode mode)
+            throws IOException {
+        this(channel, mode, SEGMENT_SHIFT);
+    }
+
+    /**
+     * Constructs a new {@code MappedByteBufferDataSource} mapping the whole file of the provided
+     * channel in segments of {@code 1 << segmentShift} bytes, so tests can cross segment
+     * boundaries without a file of several GB.
+     */
+    MappedByteBufferDataSource(FileChannel channel, FileChannel.MapMode mode, int segmentShift)
+            throws IOException {
+        if (segmentShift < 1 || segmentShift > SEGMENT_SHIFT) {
+            throw new IllegalArgumentException("segmentShift: " + segmentShift);
+        }
+        long size = channel.size();
+        long segmentSize = 1L << segmentShift;
+        int segmentCount = (int) ((size + segmentSize - 1) >>> segmentShift);
+        MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            long segmentOffset = i * segmentSize;
+            segments[i] = channel.map(
+                    mode, segmentOffset, Math.min(segmentSize, size - segmentOffset));
+        }
+        mSegments = segments;
+        mSegmentShift = segmentShift;
+        mOffset = 0;
+        mSize = size;
+    }
+
+    private MappedByteBufferDataSource(MappedByteBuffer[] segments, int segmentShift,
+                                       long offset, long size) {
+        mSegments = segments;
+        mSegmentShift = segmentShift;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public MappedByteBufferDataSource slice(long offset, long size) {
+        checkChunkValid(offset, size);
+        if ((offset == 0) && (size == mSize)) {
+            return this;
+        }
+
+        return new MappedByteBufferDataSource(mSegments, mSegmentShift, mOffset + offset, size);
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkChunkValid(offset, size);
+
+        long chunkOffset = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            ByteBuffer chunk = segmentView(chunkOffset, remaining);
+            int chunkSize = chunk.remaining();
+            sink.consume(chunk);
+            chunkOffset += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return ByteBuffer.allocate(0);
+        }
+
+        ByteBuffer chunk = segmentView(mOffset + offset, size);
+        if (chunk.remaining() == size) {
+            return chunk.slice();
+        }
+
+        // The chunk spans two segments, it can only be returned as a copy.
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) {
+        checkChunkValid(offset, size);
+
+        long chunkOffset = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            ByteBuffer chunk = segmentView(chunkOffset, remaining);
+            int chunkSize = chunk.remaining();
+            dest.put(chunk);
+            chunkOffset += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    /**
+     * Returns a view over the mapping starting at {@code offsetInFile}, limited to
+     * {@code maxSize} bytes or to the end of the segment holding {@code offsetInFile}, whichever
+     * comes first.
+     */
+    private ByteBuffer segmentView(long offsetInFile, long maxSize) {
+        // asReadOnlyBuffer() leaves the shared segment's position and limit untouched, which is
+        // what makes this data source safe for use by multiple threads.
+        ByteBuffer segment =
+                mSegments[(int) (offsetInFile >>> mSegmentShift)].asReadOnlyBuffer();
+        int position = (int) (offsetInFile & ((1L << mSegmentShift) - 1));
+        int limit = (int) Math.min(segment.capacity(), position + maxSize);
+        segment.limit(limit);
+        segment.position(position);
+        return segment;
+    }
+
+    private void checkChunkValid(long offset, long size) {
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IllegalArgumentException("size: " + size);
+        }
+        if (offset > mSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") > source size (" + mSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > mSize) {
+            throw new IllegalArgumentException(
+                    "offset (" + offset + ") + size (" + size + ") > source size (" + mSize + ")");
+        }
+    }
+}
@@ -65,11 +65,17 @@ public class OutputStreamDataSink implements DataSink {
                     buf.remaining());
             buf.position(buf.limit());
         } else {
-            byte[] tmp = new byte[Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE)];
-            while (buf.hasRemaining()) {
-                int chunkSize = Math.min(buf.remaining(), tmp.length);
-                buf.get(tmp, 0, chunkSize);
-                mOut.write(tmp, 0, chunkSize);
+            ByteBuffer pooled =
+                    ByteBufferPool.acquire(Math.min(buf.remaining(), MAX_READ_CHUNK_SIZE));
+            try {
+                byte[] tmp = pooled.array();
+                while (buf.hasRemaining()) {
+                    int chunkSize = Math.min(buf.remaining(), pooled.limit());
+                    buf.get(tmp, 0, chunkSize);
+                    mOut.write(tmp, 0, chunkSize);
+                }
+            } finally {
+                ByteBufferPool.release(pooled);
             }
         }
     }
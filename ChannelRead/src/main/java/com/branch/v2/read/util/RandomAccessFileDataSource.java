@@ -21,6 +21,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 /**
  * {@link DataSource} backed by a {@link RandomAccessFile}.
@@ -95,16 +96,22 @@ public class RandomAccessFileDataSource implements DataSource {
 
         long chunkOffsetInFile = mOffset + offset;
         long remaining = size;
-        byte[] buf = new byte[(int) Math.min(remaining, MAX_READ_CHUNK_SIZE)];
-        while (remaining > 0) {
-            int chunkSize = (int) Math.min(remaining, buf.length);
-            synchronized (mFile) {
-                mFile.seek(chunkOffsetInFile);
-                mFile.readFully(buf, 0, chunkSize);
+        ByteBuffer pooled =
+                ByteBufferPool.acquire((int) Math.min(remaining, MAX_READ_CHUNK_SIZE));
+        try {
+            byte[] buf = pooled.array();
+            while (remaining > 0) {
+                int chunkSize = (int) Math.min(remaining, pooled.limit());
+                synchronized (mFile) {
+                    mFile.seek(chunkOffsetInFile);
+                    mFile.readFully(buf, 0, chunkSize);
+                }
+                sink.consume(buf, 0, chunkSize);
+                chunkOffsetInFile += chunkSize;
+                remaining -= chunkSize;
             }
-            sink.consume(buf, 0, chunkSize);
-            chunkOffsetInFile += chunkSize;
-            remaining -= chunkSize;
+        } finally {
+            ByteBufferPool.release(pooled);
         }
     }
 
@@ -136,6 +143,32 @@ public class RandomAccessFileDataSource implements DataSource {
         }
     }
 
+    /**
+     * Transfers the specified chunk from this data source into the provided channel. The data is
+     * moved by {@link FileChannel#transferTo(long, long, WritableByteChannel)}, which lets the
+     * operating system copy it (sendfile, copy_file_range) without going through a user-space
+     * buffer. The file's position is not used, so this does not need to lock the file.
+     *
+     * @param offset index (in bytes) at which the chunk starts inside data source
+     * @param size   size (in bytes) of the chunk
+     */
+    public void transferTo(long offset, long size, WritableByteChannel target) throws IOException {
+        long sourceSize = size();
+        checkChunkValid(offset, size, sourceSize);
+
+        FileChannel fileChannel = mFile.getChannel();
+        long chunkOffsetInFile = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            long chunkSize = fileChannel.transferTo(chunkOffsetInFile, remaining, target);
+            if (chunkSize <= 0) {
+                throw new IOException("Unexpected end of file at offset " + chunkOffsetInFile);
+            }
+            chunkOffsetInFile += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
     @Override
     public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
         ByteBuffer result = ByteBuffer.allocate(size);
@@ -18,6 +18,7 @@ package com.branch.v2.read.zip;
 
 
 
+import com.branch.v2.read.util.ByteBufferPool;
 import com.branch.v2.read.util.DataSource;
 import com.branch.v2.read.util.Pair;
 
@@ -40,11 +41,22 @@ public abstract class ZipUtils {
 
     private static final int ZIP_EOCD_REC_MIN_SIZE = 22;
     private static final int ZIP_EOCD_REC_SIG = 0x06054b50;
+    private static final long ZIP_EOCD_REC_SIG_FIRST_BYTE_X8 = 0x5050505050505050L;
     private static final int ZIP_EOCD_CENTRAL_DIR_TOTAL_RECORD_COUNT_OFFSET = 10;
     private static final int ZIP_EOCD_CENTRAL_DIR_SIZE_FIELD_OFFSET = 12;
     private static final int ZIP_EOCD_CENTRAL_DIR_OFFSET_FIELD_OFFSET = 16;
     private static final int ZIP_EOCD_COMMENT_LENGTH_FIELD_OFFSET = 20;
 
+    private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+    public static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_LOCATOR_RECORD_OFFSET_FIELD_OFFSET = 8;
+
+    private static final int ZIP64_EOCD_REC_MIN_SIZE = 56;
+    private static final int ZIP64_EOCD_REC_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_CENTRAL_DIR_TOTAL_RECORD_COUNT_OFFSET = 32;
+    private static final int ZIP64_EOCD_CENTRAL_DIR_SIZE_FIELD_OFFSET = 40;
+    private static final int ZIP64_EOCD_CENTRAL_DIR_OFFSET_FIELD_OFFSET = 48;
+
     private static final int UINT16_MAX_VALUE = 0xffff;
 
     /**
@@ -99,6 +111,123 @@ public abstract class ZipUtils {
                         + ZIP_EOCD_CENTRAL_DIR_TOTAL_RECORD_COUNT_OFFSET);
     }
 
+    /**
+     * Returns the offset of the start of the ZIP Central Directory in the archive.
+     * <p>
+     * <p>NOTE: Byte order of {@code zip64EndOfCentralDirectory} must be little-endian.
+     */
+    public static long getZip64EocdCentralDirectoryOffset(ByteBuffer zip64EndOfCentralDirectory) {
+        assertByteOrderLittleEndian(zip64EndOfCentralDirectory);
+        return zip64EndOfCentralDirectory.getLong(
+                zip64EndOfCentralDirectory.position() + ZIP64_EOCD_CENTRAL_DIR_OFFSET_FIELD_OFFSET);
+    }
+
+    /**
+     * Sets the offset of the start of the ZIP Central Directory in the archive.
+     * <p>
+     * <p>NOTE: Byte order of {@code zip64EndOfCentralDirectory} must be little-endian.
+     */
+    public static void setZip64EocdCentralDirectoryOffset(
+            ByteBuffer zip64EndOfCentralDirectory, long offset) {
+        assertByteOrderLittleEndian(zip64EndOfCentralDirectory);
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        zip64EndOfCentralDirectory.putLong(
+                zip64EndOfCentralDirectory.position() + ZIP64_EOCD_CENTRAL_DIR_OFFSET_FIELD_OFFSET,
+                offset);
+    }
+
+    /**
+     * Returns the size (in bytes) of the ZIP Central Directory.
+     * <p>
+     * <p>NOTE: Byte order of {@code zip64EndOfCentralDirectory} must be little-endian.
+     */
+    public static long getZip64EocdCentralDirectorySizeBytes(
+            ByteBuffer zip64EndOfCentralDirectory) {
+        assertByteOrderLittleEndian(zip64EndOfCentralDirectory);
+        return zip64EndOfCentralDirectory.getLong(
+                zip64EndOfCentralDirectory.position() + ZIP64_EOCD_CENTRAL_DIR_SIZE_FIELD_OFFSET);
+    }
+
+    /**
+     * Returns the total number of records in ZIP Central Directory.
+     * <p>
+     * <p>NOTE: Byte order of {@code zip64EndOfCentralDirectory} must be little-endian.
+     */
+    public static long getZip64EocdCentralDirectoryTotalRecordCount(
+            ByteBuffer zip64EndOfCentralDirectory) {
+        assertByteOrderLittleEndian(zip64EndOfCentralDirectory);
+        return zip64EndOfCentralDirectory.getLong(
+                zip64EndOfCentralDirectory.position()
+                        + ZIP64_EOCD_CENTRAL_DIR_TOTAL_RECORD_COUNT_OFFSET);
+    }
+
+    /**
+     * Sets the offset of the ZIP64 End of Central Directory record in the ZIP64 End of Central
+     * Directory locator.
+     * <p>
+     * <p>NOTE: Byte order of {@code zip64EndOfCentralDirectoryLocator} must be little-endian.
+     */
+    public static void setZip64EocdLocatorRecordOffset(
+            ByteBuffer zip64EndOfCentralDirectoryLocator, long offset) {
+        assertByteOrderLittleEndian(zip64EndOfCentralDirectoryLocator);
+        if (offset < 0) {
+            throw new IllegalArgumentException("offset: " + offset);
+        }
+        zip64EndOfCentralDirectoryLocator.putLong(
+                zip64EndOfCentralDirectoryLocator.position()
+                        + ZIP64_EOCD_LOCATOR_RECORD_OFFSET_FIELD_OFFSET,
+                offset);
+    }
+
+    /**
+     * Returns the ZIP64 End of Central Directory record of the provided ZIP file.
+     * <p>
+     * <p>A ZIP64 archive has the ZIP64 End of Central Directory locator immediately before the
+     * End of Central Directory record, pointing at the ZIP64 End of Central Directory record which
+     * holds the 64-bit Central Directory offset, size and record count. Archives below 4 GB rarely
+     * have one, but are allowed to.
+     *
+     * @param eocdOffset offset of the ZIP End of Central Directory record in the file
+     * @return contents of the ZIP64 End of Central Directory record, up to the locator, and the
+     * record's offset in the file or {@code null} if the file is not a ZIP64 archive.
+     * @throws IOException        if an I/O error occurs while reading the file.
+     * @throws ZipFormatException if the locator is present but the record is not where it points.
+     */
+    public static Pair<ByteBuffer, Long> findZip64EndOfCentralDirectoryRecord(
+            DataSource zip, long eocdOffset) throws IOException, ZipFormatException {
+        long locatorOffset = eocdOffset - ZIP64_EOCD_LOCATOR_SIZE;
+        if (locatorOffset < 0) {
+            return null;
+        }
+        ByteBuffer locator = zip.getByteBuffer(locatorOffset, ZIP64_EOCD_LOCATOR_SIZE);
+        locator.order(ByteOrder.LITTLE_ENDIAN);
+        if (locator.getInt(0) != ZIP64_EOCD_LOCATOR_SIG) {
+            return null;
+        }
+
+        long recordOffset = locator.getLong(ZIP64_EOCD_LOCATOR_RECORD_OFFSET_FIELD_OFFSET);
+        if ((recordOffset < 0) || (recordOffset > locatorOffset - ZIP64_EOCD_REC_MIN_SIZE)) {
+            throw new ZipFormatException(
+                    "ZIP64 End of Central Directory record offset out of range: " + recordOffset
+                            + ". ZIP64 End of Central Directory locator offset: "
+                            + locatorOffset);
+        }
+        long recordSize = locatorOffset - recordOffset;
+        if (recordSize > Integer.MAX_VALUE) {
+            throw new ZipFormatException(
+                    "ZIP64 End of Central Directory record too large: " + recordSize);
+        }
+        ByteBuffer record = zip.getByteBuffer(recordOffset, (int) recordSize);
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        if (record.getInt(0) != ZIP64_EOCD_REC_SIG) {
+            throw new ZipFormatException(
+                    "ZIP64 End of Central Directory record not found at offset " + recordOffset);
+        }
+        return Pair.of(record, recordOffset);
+    }
+
     /**
      * Returns the ZIP End of Central Directory record of the provided ZIP file.
      *
@@ -193,7 +322,7 @@ public abstract class ZipUtils {
      * <p>
      * <p>NOTE: Byte order of {@code zipContents} must be little-endian.
      */
-    private static int findZipEndOfCentralDirectoryRecord(ByteBuffer zipContents) {
+    public static int findZipEndOfCentralDirectoryRecord(ByteBuffer zipContents) {
         assertByteOrderLittleEndian(zipContents);
 
         // ZIP End of Central Directory (EOCD) record is located at the very end of the ZIP archive.
@@ -212,22 +341,51 @@ public abstract class ZipUtils {
         }
         int maxCommentLength = Math.min(archiveSize - ZIP_EOCD_REC_MIN_SIZE, UINT16_MAX_VALUE);
         int eocdWithEmptyCommentStartPosition = archiveSize - ZIP_EOCD_REC_MIN_SIZE;
-        for (int expectedCommentLength = 0; expectedCommentLength <= maxCommentLength;
-             expectedCommentLength++) {
-            int eocdStartPos = eocdWithEmptyCommentStartPosition - expectedCommentLength;
-            if (zipContents.getInt(eocdStartPos) == ZIP_EOCD_REC_SIG) {
-                int actualCommentLength =
-                        getUnsignedInt16(
-                                zipContents, eocdStartPos + ZIP_EOCD_COMMENT_LENGTH_FIELD_OFFSET);
-                if (actualCommentLength == expectedCommentLength) {
-                    return eocdStartPos;
+        int minEocdStartPos = eocdWithEmptyCommentStartPosition - maxCommentLength;
+
+        // Scan 8 candidate start positions per iteration: a record can only start at a byte equal
+        // to the first byte of the signature ('P'), and a long can be tested for such bytes
+        // without branching on each of them (SWAR zero-byte test on the long XOR "PPPPPPPP").
+        // The test has no false negatives, its occasional false positives are rejected by the
+        // full signature check.
+        int eocdStartPos = eocdWithEmptyCommentStartPosition;
+        while (eocdStartPos - 7 >= minEocdStartPos) {
+            int wordPos = eocdStartPos - 7;
+            long word = zipContents.getLong(wordPos) ^ ZIP_EOCD_REC_SIG_FIRST_BYTE_X8;
+            long candidates = (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+            while (candidates != 0) {
+                // highest position first, so that the shortest comment wins as in a byte scan
+                int highestBit = 63 - Long.numberOfLeadingZeros(candidates);
+                int candidatePos = wordPos + (highestBit >>> 3);
+                if (isZipEndOfCentralDirectoryRecord(
+                        zipContents, candidatePos, eocdWithEmptyCommentStartPosition)) {
+                    return candidatePos;
                 }
+                candidates &= ~(1L << highestBit);
+            }
+            eocdStartPos -= 8;
+        }
+        for (; eocdStartPos >= minEocdStartPos; eocdStartPos--) {
+            if (isZipEndOfCentralDirectoryRecord(
+                    zipContents, eocdStartPos, eocdWithEmptyCommentStartPosition)) {
+                return eocdStartPos;
             }
         }
 
         return -1;
     }
 
+    private static boolean isZipEndOfCentralDirectoryRecord(
+            ByteBuffer zipContents, int eocdStartPos, int eocdWithEmptyCommentStartPosition) {
+        if (zipContents.getInt(eocdStartPos) != ZIP_EOCD_REC_SIG) {
+            return false;
+        }
+        int expectedCommentLength = eocdWithEmptyCommentStartPosition - eocdStartPos;
+        int actualCommentLength =
+                getUnsignedInt16(zipContents, eocdStartPos + ZIP_EOCD_COMMENT_LENGTH_FIELD_OFFSET);
+        return actualCommentLength == expectedCommentLength;
+    }
+
     static void assertByteOrderLittleEndian(ByteBuffer buffer) {
         if (buffer.order() != ByteOrder.LITTLE_ENDIAN) {
             throw new IllegalArgumentException("ByteBuffer byte order must be little endian");
@@ -282,28 +440,40 @@ public abstract class ZipUtils {
         byte[] inputBuf;
         int inputOffset;
         int inputLength = input.remaining();
+        ByteBuffer pooledInput = null;
         if (input.hasArray()) {
             inputBuf = input.array();
             inputOffset = input.arrayOffset() + input.position();
             input.position(input.limit());
         } else {
-            inputBuf = new byte[inputLength];
+            pooledInput = ByteBufferPool.acquire(inputLength);
+            inputBuf = pooledInput.array();
             inputOffset = 0;
-            input.get(inputBuf);
+            input.get(inputBuf, 0, inputLength);
         }
-        CRC32 crc32 = new CRC32();
-        crc32.update(inputBuf, inputOffset, inputLength);
-        long crc32Value = crc32.getValue();
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer pooledOutput = ByteBufferPool.acquire(65536);
         Deflater deflater = new Deflater(9, true);
-        deflater.setInput(inputBuf, inputOffset, inputLength);
-        deflater.finish();
-        byte[] buf = new byte[65536];
-        while (!deflater.finished()) {
-            int chunkSize = deflater.deflate(buf);
-            out.write(buf, 0, chunkSize);
+        try {
+            CRC32 crc32 = new CRC32();
+            crc32.update(inputBuf, inputOffset, inputLength);
+            long crc32Value = crc32.getValue();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            deflater.setInput(inputBuf, inputOffset, inputLength);
+            deflater.finish();
+            byte[] buf = pooledOutput.array();
+            while (!deflater.finished()) {
+                int chunkSize = deflater.deflate(buf, 0, pooledOutput.limit());
+                out.write(buf, 0, chunkSize);
+            }
+            return new DeflateResult(inputLength, crc32Value, out.toByteArray());
+        } finally {
+            // release the native zlib state now rather than when the Deflater is finalized
+            deflater.end();
+            ByteBufferPool.release(pooledOutput);
+            if (pooledInput != null) {
+                ByteBufferPool.release(pooledInput);
+            }
         }
-        return new DeflateResult(inputLength, crc32Value, out.toByteArray());
     }
 
     public static class DeflateResult {
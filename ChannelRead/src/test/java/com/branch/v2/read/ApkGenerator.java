@@ -0,0 +1,608 @@
+package com.branch.v2.read;
+
+import com.branch.v2.read.util.ApkSignatureVerifier;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.zip.ZipFormatException;
+import com.branch.v2.read.zip.ZipUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Writes synthetic APKs for tests and benchmarks, so neither needs real APKs.
+ * <p>
+ * <p>The generated file is a valid ZIP archive: entries, an APK Signing Block holding a
+ * placeholder APK Signature Scheme v2 block and any additional ID-value pairs, the Central
+ * Directory and the End of Central Directory record, optionally with a comment and Zip64 records.
+ * Nothing is signed, the v2 block is random bytes of the configured size: the files have the
+ * layout the channel tools parse, but do not pass signature verification. With
+ * {@link #setV2Digests(boolean)} the v2 block holds a signer with the real content digest and a
+ * placeholder signature, which passes {@link ApkSignatureVerifier}.
+ * <p>
+ * <p>The content only depends on the configuration and the seed, so generated APKs are
+ * reproducible.
+ */
+public class ApkGenerator {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int ZIP_LOCAL_FILE_HEADER_SIG = 0x04034b50;
+    private static final int ZIP_CENTRAL_DIRECTORY_HEADER_SIG = 0x02014b50;
+    private static final int ZIP_EOCD_REC_SIG = 0x06054b50;
+    private static final int ZIP64_EOCD_REC_SIG = 0x06064b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_FIELD_ID = 0x0001;
+
+    private static final int LOCAL_FILE_HEADER_SIZE = 30;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIZE = 46;
+    private static final int EOCD_REC_SIZE = 22;
+    private static final int ZIP64_EOCD_REC_SIZE = 56;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+    private static final int ZIP64_LOCAL_EXTRA_SIZE = 4 + 16;
+    private static final int ZIP64_CENTRAL_DIRECTORY_EXTRA_SIZE = 4 + 24;
+
+    private static final int COMPRESSION_METHOD_STORED = 0;
+    private static final int COMPRESSION_METHOD_DEFLATED = 8;
+
+    private static final int APK_SIGNATURE_SCHEME_V2_BLOCK_ID = 0x7109871a;
+    private static final int SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256 = 0x0103;
+
+    /**
+     * Offset of the SHA-256 digest in a v2 block written with {@link #setV2Digests(boolean)}:
+     * signers, signer, signed data, digests and digest lengths, algorithm ID and digest length.
+     */
+    private static final int V2_DIGEST_OFFSET = 7 * 4;
+    private static final int V2_SIGNATURE_SIZE = 256;
+    private static final int V2_MIN_BLOCK_SIZE = 3 * 4 + 56 + 5 * 4 + V2_SIGNATURE_SIZE;
+
+    /**
+     * First ID of the pairs added by {@link #setExtraPairs(int, int)}.
+     */
+    public static final int EXTRA_PAIR_FIRST_ID = 0x7f000000;
+
+    /**
+     * Entries of up to this size are deflated when {@link #setCompressEntries(boolean)} is set,
+     * larger ones are always stored.
+     */
+    private static final int MAX_DEFLATED_ENTRY_SIZE = 16 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    private int mEntryCount = 1;
+    private long mTotalSize = 1024 * 1024;
+    private int mCommentLength;
+    private int mV2BlockSize = 2048;
+    private int mExtraPairCount;
+    private int mExtraPairSize;
+    private final List<Integer> mPairIds = new ArrayList<>();
+    private final List<byte[]> mPairValues = new ArrayList<>();
+    private boolean mZip64;
+    private boolean mCompressEntries;
+    private boolean mV2Digests;
+    private long mSeed = 42;
+
+    /**
+     * Number of entries, 1 by default.
+     */
+    public ApkGenerator setEntryCount(int entryCount) {
+        if (entryCount < 1 || entryCount > 0xffff) {
+            throw new IllegalArgumentException("entryCount: " + entryCount);
+        }
+        mEntryCount = entryCount;
+        return this;
+    }
+
+    /**
+     * Approximate size of the generated file, 1 MB by default. The entry data is sized so the
+     * file has exactly this size unless the entries are compressed, or the headers, the APK
+     * Signing Block and the comment alone are larger.
+     */
+    public ApkGenerator setTotalSize(long totalSize) {
+        if (totalSize < 0) {
+            throw new IllegalArgumentException("totalSize: " + totalSize);
+        }
+        mTotalSize = totalSize;
+        return this;
+    }
+
+    /**
+     * Length of the ZIP comment, 0 by default.
+     */
+    public ApkGenerator setCommentLength(int commentLength) {
+        if (commentLength < 0 || commentLength > 0xffff) {
+            throw new IllegalArgumentException("commentLength: " + commentLength);
+        }
+        mCommentLength = commentLength;
+        return this;
+    }
+
+    /**
+     * Size of the placeholder APK Signature Scheme v2 block, 2048 bytes by default.
+     */
+    public ApkGenerator setV2BlockSize(int v2BlockSize) {
+        if (v2BlockSize < 0) {
+            throw new IllegalArgumentException("v2BlockSize: " + v2BlockSize);
+        }
+        mV2BlockSize = v2BlockSize;
+        return this;
+    }
+
+    /**
+     * Adds {@code count} ID-value pairs of {@code size} random bytes after the v2 block, with IDs
+     * counting up from {@link #EXTRA_PAIR_FIRST_ID}.
+     */
+    public ApkGenerator setExtraPairs(int count, int size) {
+        if (count < 0 || size < 0) {
+            throw new IllegalArgumentException("count: " + count + ", size: " + size);
+        }
+        mExtraPairCount = count;
+        mExtraPairSize = size;
+        return this;
+    }
+
+    /**
+     * Adds an ID-value pair after the v2 block and the extra pairs, for example
+     * {@link ApkUtils#APK_SIGNATURE_SCHEME_V2_CHANNEL_ID} to generate a channel APK.
+     */
+    public ApkGenerator addPair(int id, byte[] value) {
+        mPairIds.add(id);
+        mPairValues.add(value.clone());
+        return this;
+    }
+
+    /**
+     * Writes Zip64 End of Central Directory records and Zip64 extra fields, even if the archive
+     * does not need them. Off by default.
+     */
+    public ApkGenerator setZip64(boolean zip64) {
+        mZip64 = zip64;
+        return this;
+    }
+
+    /**
+     * Fills entries with compressible text and deflates them with {@link ZipUtils#deflate}.
+     * Entries larger than 16 MB are stored regardless. Off by default: entries hold random data
+     * and are stored.
+     */
+    public ApkGenerator setCompressEntries(boolean compressEntries) {
+        mCompressEntries = compressEntries;
+        return this;
+    }
+
+    /**
+     * Writes a v2 block with one signer holding the CHUNKED_SHA256 content digest of the
+     * generated file, padded to the v2 block size with its placeholder public key. The signature
+     * is random bytes. Off by default.
+     */
+    public ApkGenerator setV2Digests(boolean v2Digests) {
+        mV2Digests = v2Digests;
+        return this;
+    }
+
+    /**
+     * Seed of the entry and pair content, 42 by default.
+     */
+    public ApkGenerator setSeed(long seed) {
+        mSeed = seed;
+        return this;
+    }
+
+    /**
+     * Returns a new temporary file holding the generated APK. The file is deleted on exit.
+     */
+    public File generate() throws IOException {
+        File file = File.createTempFile("apk-generator-", ".apk");
+        file.deleteOnExit();
+        generate(file);
+        return file;
+    }
+
+    /**
+     * Writes the generated APK to {@code file}, replacing its content.
+     */
+    public void generate(File file) throws IOException {
+        byte[][] names = new byte[mEntryCount][];
+        for (int i = 0; i < mEntryCount; i++) {
+            names[i] = String.format("assets/entry%05d.%s", i, mCompressEntries ? "txt" : "bin")
+                    .getBytes(UTF_8);
+        }
+        ByteBuffer apkSigningBlock = newApkSigningBlock();
+        long dataSize = Math.max(0, mTotalSize - getOverheadSize(names, apkSigningBlock));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            FileChannel channel = raf.getChannel();
+            Random random = new Random(mSeed);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            random.nextBytes(chunk);
+
+            Entry[] entries = new Entry[mEntryCount];
+            for (int i = 0; i < mEntryCount; i++) {
+                long entrySize = dataSize / mEntryCount;
+                if (i == mEntryCount - 1) {
+                    entrySize += dataSize % mEntryCount;
+                }
+                entries[i] = writeEntry(channel, names[i], entrySize, chunk, i);
+            }
+
+            long apkSigningBlockOffset = channel.position();
+            writeFully(channel, apkSigningBlock);
+
+            long centralDirectoryOffset = channel.position();
+            for (Entry entry : entries) {
+                writeFully(channel, newCentralDirectoryHeader(entry));
+            }
+            long centralDirectorySize = channel.position() - centralDirectoryOffset;
+
+            if (mZip64) {
+                long zip64EocdOffset = channel.position();
+                writeFully(channel, newZip64EndOfCentralDirectory(
+                        centralDirectoryOffset, centralDirectorySize));
+                writeFully(channel, newZip64EndOfCentralDirectoryLocator(zip64EocdOffset));
+            }
+            writeFully(channel, newEndOfCentralDirectory(
+                    centralDirectoryOffset, centralDirectorySize));
+
+            if (mV2Digests) {
+                writeV2Digest(channel, apkSigningBlockOffset);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the content digest of the complete file into the v2 block, the first pair of the
+     * APK Signing Block at {@code apkSigningBlockOffset}.
+     */
+    private static void writeV2Digest(FileChannel channel, long apkSigningBlockOffset)
+            throws IOException {
+        byte[] digest;
+        try {
+            digest = new ApkSignatureVerifier().computeContentDigest(
+                    DataSources.asDataSource(channel),
+                    ApkSignatureVerifier.CONTENT_DIGEST_CHUNKED_SHA256);
+        } catch (ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            throw new IOException("Generated APK cannot be digested", e);
+        }
+        // block size, pair size and ID precede the v2 block
+        long position = apkSigningBlockOffset + 8 + 8 + 4 + V2_DIGEST_OFFSET;
+        ByteBuffer buf = ByteBuffer.wrap(digest);
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+
+    private long getOverheadSize(byte[][] names, ByteBuffer apkSigningBlock) {
+        long size = apkSigningBlock.remaining() + EOCD_REC_SIZE + mCommentLength;
+        for (byte[] name : names) {
+            size += LOCAL_FILE_HEADER_SIZE + CENTRAL_DIRECTORY_HEADER_SIZE + 2L * name.length;
+        }
+        if (mZip64) {
+            size += ZIP64_EOCD_REC_SIZE + ZIP64_EOCD_LOCATOR_SIZE;
+            size += (long) names.length
+                    * (ZIP64_LOCAL_EXTRA_SIZE + ZIP64_CENTRAL_DIRECTORY_EXTRA_SIZE);
+        }
+        return size;
+    }
+
+    private Entry writeEntry(FileChannel channel, byte[] name, long size, byte[] chunk, int index)
+            throws IOException {
+        Entry entry = new Entry();
+        entry.name = name;
+        entry.localHeaderOffset = channel.position();
+        entry.uncompressedSize = size;
+
+        if (mCompressEntries && size <= MAX_DEFLATED_ENTRY_SIZE) {
+            ZipUtils.DeflateResult deflated = ZipUtils.deflate(newText((int) size, index));
+            entry.compressionMethod = COMPRESSION_METHOD_DEFLATED;
+            entry.crc32 = deflated.inputCrc32;
+            entry.compressedSize = deflated.output.length;
+            writeFully(channel, newLocalFileHeader(entry));
+            writeFully(channel, ByteBuffer.wrap(deflated.output));
+            return entry;
+        }
+
+        // Stored: stream the data and patch the CRC into the local header afterwards.
+        entry.compressionMethod = COMPRESSION_METHOD_STORED;
+        entry.compressedSize = size;
+        writeFully(channel, newLocalFileHeader(entry));
+        CRC32 crc32 = new CRC32();
+        // rotate the chunk per entry so that entries differ
+        int chunkOffset = (int) ((index * 7919L) % chunk.length);
+        long remaining = size;
+        while (remaining > 0) {
+            int chunkSize = (int) Math.min(remaining, chunk.length - chunkOffset);
+            crc32.update(chunk, chunkOffset, chunkSize);
+            writeFully(channel, ByteBuffer.wrap(chunk, chunkOffset, chunkSize));
+            remaining -= chunkSize;
+            chunkOffset = 0;
+        }
+        entry.crc32 = crc32.getValue();
+
+        ByteBuffer crc = newBuffer(4);
+        crc.putInt((int) entry.crc32);
+        crc.flip();
+        channel.write(crc, entry.localHeaderOffset + 14);
+        return entry;
+    }
+
+    private ByteBuffer newText(int size, int index) {
+        Random random = new Random(mSeed + index);
+        String[] words = {"channel", "apk", "signing", "block", "zip", "entry", "huawei",
+                "xiaomi", "central", "directory", "\n"};
+        StringBuilder text = new StringBuilder(size + 16);
+        while (text.length() < size) {
+            text.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        byte[] bytes = text.toString().getBytes(UTF_8);
+        return ByteBuffer.wrap(bytes, 0, size);
+    }
+
+    private ByteBuffer newLocalFileHeader(Entry entry) {
+        ByteBuffer header = newBuffer(LOCAL_FILE_HEADER_SIZE + entry.name.length
+                + (mZip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0));
+        header.putInt(ZIP_LOCAL_FILE_HEADER_SIG);
+        header.putShort((short) (mZip64 ? 45 : 20));
+        header.putShort((short) 0);
+        header.putShort((short) entry.compressionMethod);
+        header.putShort((short) 0);
+        header.putShort((short) 0x21);
+        header.putInt((int) entry.crc32);
+        if (mZip64) {
+            header.putInt(0xffffffff);
+            header.putInt(0xffffffff);
+        } else {
+            ZipUtils.putUnsignedInt32(header, entry.compressedSize);
+            ZipUtils.putUnsignedInt32(header, entry.uncompressedSize);
+        }
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (mZip64 ? ZIP64_LOCAL_EXTRA_SIZE : 0));
+        header.put(entry.name);
+        if (mZip64) {
+            header.putShort((short) ZIP64_EXTRA_FIELD_ID);
+            header.putShort((short) 16);
+            header.putLong(entry.uncompressedSize);
+            header.putLong(entry.compressedSize);
+        }
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer newCentralDirectoryHeader(Entry entry) {
+        ByteBuffer header = newBuffer(CENTRAL_DIRECTORY_HEADER_SIZE + entry.name.length
+                + (mZip64 ? ZIP64_CENTRAL_DIRECTORY_EXTRA_SIZE : 0));
+        header.putInt(ZIP_CENTRAL_DIRECTORY_HEADER_SIG);
+        header.putShort((short) (mZip64 ? 45 : 20));
+        header.putShort((short) (mZip64 ? 45 : 20));
+        header.putShort((short) 0);
+        header.putShort((short) entry.compressionMethod);
+        header.putShort((short) 0);
+        header.putShort((short) 0x21);
+        header.putInt((int) entry.crc32);
+        if (mZip64) {
+            header.putInt(0xffffffff);
+            header.putInt(0xffffffff);
+        } else {
+            ZipUtils.putUnsignedInt32(header, entry.compressedSize);
+            ZipUtils.putUnsignedInt32(header, entry.uncompressedSize);
+        }
+        header.putShort((short) entry.name.length);
+        header.putShort((short) (mZip64 ? ZIP64_CENTRAL_DIRECTORY_EXTRA_SIZE : 0));
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(0); // external attributes
+        if (mZip64) {
+            header.putInt(0xffffffff);
+        } else {
+            ZipUtils.putUnsignedInt32(header, entry.localHeaderOffset);
+        }
+        header.put(entry.name);
+        if (mZip64) {
+            header.putShort((short) ZIP64_EXTRA_FIELD_ID);
+            header.putShort((short) 24);
+            header.putLong(entry.uncompressedSize);
+            header.putLong(entry.compressedSize);
+            header.putLong(entry.localHeaderOffset);
+        }
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer newApkSigningBlock() {
+        Random random = new Random(mSeed ^ 0x5deece66dL);
+        List<Integer> ids = new ArrayList<>();
+        List<byte[]> values = new ArrayList<>();
+        byte[] v2Block;
+        if (mV2Digests) {
+            v2Block = newV2Block(random);
+        } else {
+            v2Block = new byte[mV2BlockSize];
+            random.nextBytes(v2Block);
+        }
+        ids.add(APK_SIGNATURE_SCHEME_V2_BLOCK_ID);
+        values.add(v2Block);
+        for (int i = 0; i < mExtraPairCount; i++) {
+            byte[] value = new byte[mExtraPairSize];
+            random.nextBytes(value);
+            ids.add(EXTRA_PAIR_FIRST_ID + i);
+            values.add(value);
+        }
+        ids.addAll(mPairIds);
+        values.addAll(mPairValues);
+
+        long pairsSize = 0;
+        for (byte[] value : values) {
+            pairsSize += 8 + 4 + value.length;
+        }
+        long blockSizeFieldValue = pairsSize + 8 + 16;
+        ByteBuffer block = newBuffer((int) (8 + blockSizeFieldValue));
+        block.putLong(blockSizeFieldValue);
+        for (int i = 0; i < ids.size(); i++) {
+            block.putLong(4 + values.get(i).length);
+            block.putInt(ids.get(i));
+            block.put(values.get(i));
+        }
+        block.putLong(blockSizeFieldValue);
+        block.putLong(ApkUtils.APK_SIG_BLOCK_MAGIC_LO);
+        block.putLong(ApkUtils.APK_SIG_BLOCK_MAGIC_HI);
+        block.flip();
+        return block;
+    }
+
+    /**
+     * Returns a v2 block with one signer and a zero digest, see {@link #setV2Digests(boolean)}.
+     */
+    private byte[] newV2Block(Random random) {
+        int size = Math.max(mV2BlockSize, V2_MIN_BLOCK_SIZE);
+        byte[] signature = new byte[V2_SIGNATURE_SIZE];
+        random.nextBytes(signature);
+        byte[] publicKey = new byte[size - V2_MIN_BLOCK_SIZE];
+        random.nextBytes(publicKey);
+
+        ByteBuffer block = newBuffer(size);
+        block.putInt(size - 4);                 // signers
+        block.putInt(size - 8);                 // signer
+        block.putInt(56);                       // signed data
+        block.putInt(44);                       // digests
+        block.putInt(40);                       // digest
+        block.putInt(SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256);
+        block.putInt(32);
+        block.put(new byte[32]);
+        block.putInt(0);                        // certificates
+        block.putInt(0);                        // additional attributes
+        block.putInt(12 + V2_SIGNATURE_SIZE);   // signatures
+        block.putInt(8 + V2_SIGNATURE_SIZE);    // signature
+        block.putInt(SIGNATURE_RSA_PKCS1_V1_5_WITH_SHA256);
+        block.putInt(V2_SIGNATURE_SIZE);
+        block.put(signature);
+        block.putInt(publicKey.length);
+        block.put(publicKey);
+        return block.array();
+    }
+
+    private ByteBuffer newZip64EndOfCentralDirectory(
+            long centralDirectoryOffset, long centralDirectorySize) {
+        ByteBuffer record = newBuffer(ZIP64_EOCD_REC_SIZE);
+        record.putInt(ZIP64_EOCD_REC_SIG);
+        record.putLong(ZIP64_EOCD_REC_SIZE - 12);
+        record.putShort((short) 45);
+        record.putShort((short) 45);
+        record.putInt(0);
+        record.putInt(0);
+        record.putLong(mEntryCount);
+        record.putLong(mEntryCount);
+        record.putLong(centralDirectorySize);
+        record.putLong(centralDirectoryOffset);
+        record.flip();
+        return record;
+    }
+
+    private ByteBuffer newZip64EndOfCentralDirectoryLocator(long zip64EocdOffset) {
+        ByteBuffer locator = newBuffer(ZIP64_EOCD_LOCATOR_SIZE);
+        locator.putInt(ZIP64_EOCD_LOCATOR_SIG);
+        locator.putInt(0);
+        locator.putLong(zip64EocdOffset);
+        locator.putInt(1);
+        locator.flip();
+        return locator;
+    }
+
+    private ByteBuffer newEndOfCentralDirectory(
+            long centralDirectoryOffset, long centralDirectorySize) {
+        ByteBuffer eocd = newBuffer(EOCD_REC_SIZE + mCommentLength);
+        eocd.putInt(ZIP_EOCD_REC_SIG);
+        eocd.putShort((short) 0);
+        eocd.putShort((short) 0);
+        if (mZip64) {
+            eocd.putShort((short) 0xffff);
+            eocd.putShort((short) 0xffff);
+            eocd.putInt(0xffffffff);
+            eocd.putInt(0xffffffff);
+        } else {
+            eocd.putShort((short) mEntryCount);
+            eocd.putShort((short) mEntryCount);
+            ZipUtils.putUnsignedInt32(eocd, centralDirectorySize);
+            ZipUtils.putUnsignedInt32(eocd, centralDirectoryOffset);
+        }
+        eocd.putShort((short) mCommentLength);
+        for (int i = 0; i < mCommentLength; i++) {
+            eocd.put((byte) 'c');
+        }
+        eocd.flip();
+        return eocd;
+    }
+
+    private static ByteBuffer newBuffer(int size) {
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    /**
+     * Writes a channel list of {@code count} channels, {@code channel00000} and up, in the format
+     * read by the {@code -c} option of ChannelWrite.
+     */
+    public static void writeChannelList(File file, int count) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            for (int i = 0; i < count; i++) {
+                writer.write(String.format("channel%05d\n", i));
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static class Entry {
+        byte[] name;
+        long localHeaderOffset;
+        int compressionMethod;
+        long crc32;
+        long compressedSize;
+        long uncompressedSize;
+    }
+
+    /**
+     * Generates an APK and optionally a channel list for load tests:
+     * <p>
+     * <p>{@code ApkGenerator <apk> <sizeMb> [entryCount] [channelCount <channel list>]}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println(
+                    "usage: ApkGenerator <apk> <sizeMb> [entryCount] [channelCount <channel list>]");
+            return;
+        }
+        ApkGenerator generator = new ApkGenerator()
+                .setTotalSize(Long.parseLong(args[1]) * 1024 * 1024);
+        if (args.length > 2) {
+            generator.setEntryCount(Integer.parseInt(args[2]));
+        }
+        generator.generate(new File(args[0]));
+        if (args.length > 4) {
+            writeChannelList(new File(args[4]), Integer.parseInt(args[3]));
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.branch.v2.read;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelReadCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ApkGenerator newGenerator(String channel) {
+        return new ApkGenerator()
+                .setEntryCount(4)
+                .setTotalSize(64 * 1024)
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID,
+                        channel.getBytes(UTF_8));
+    }
+
+    private static File newChannelApk(String channel) throws IOException {
+        return newGenerator(channel).generate();
+    }
+
+    /**
+     * Rewrites {@code apk} with {@code channel}, keeping its length and last-modified time: the
+     * cache cannot tell the new file from the old one.
+     */
+    private static void replaceChannelUnseen(File apk, String channel) throws IOException {
+        long length = apk.length();
+        long lastModified = apk.lastModified();
+        newGenerator(channel).generate(apk);
+        assertTrue(apk.setLastModified(lastModified));
+        assertEquals(length, apk.length());
+        assertEquals(lastModified, apk.lastModified());
+    }
+
+    private static String channelName(String name) {
+        return "{\"channelName\":\"" + name + "\"}";
+    }
+
+    @Test
+    public void lookupsReturnIndependentModels() throws IOException {
+        File apk = newChannelApk("{\"channelName\":\"huawei\",\"campaign\":\"spring\"}");
+        ChannelReadCache cache = new ChannelReadCache(4);
+
+        ChannelModel first = cache.getChannel(apk.getPath());
+        first.put(ChannelModel.KEY_CAMPAIGN, "autumn");
+        first.put(ChannelModel.KEY_AB_BUCKET, 3);
+        ChannelModel second = cache.getChannel(apk.getPath());
+        second.put(ChannelModel.KEY_CAMPAIGN, (String) null);
+        ChannelModel third = cache.getChannel(apk.getPath());
+
+        assertNotSame(first, third);
+        assertNotSame(second, third);
+        assertEquals("huawei", third.getChannelName());
+        assertEquals("spring", third.getCampaign());
+        assertEquals(-1, third.getAbBucket());
+    }
+
+    @Test
+    public void apkWithoutChannelIsEmptyChannel() throws IOException {
+        File apk = new ApkGenerator().setEntryCount(4).setTotalSize(64 * 1024).generate();
+        ChannelReadCache cache = new ChannelReadCache(4);
+
+        assertEquals("", cache.getChannel(apk.getPath()).getChannelName());
+        assertEquals("", cache.getChannel(apk.getPath()).getChannelName());
+    }
+
+    @Test
+    public void unreadableApkIsEmptyChannel() {
+        ChannelReadCache cache = new ChannelReadCache(4);
+        String missing = new File(System.getProperty("java.io.tmpdir"), "missing.apk").getPath();
+
+        ChannelModel channelModel = cache.getChannel(missing);
+        assertEquals("", channelModel.getChannelName());
+        assertNull(channelModel.getCampaign());
+    }
+
+    @Test
+    public void sidecarKeepsNonAsciiValues() throws IOException {
+        File apk = newChannelApk("{\"channelName\":\"应用宝\",\"campaign\":\"春节\"}");
+        File sidecar = File.createTempFile("channel-cache-", ".properties");
+        sidecar.deleteOnExit();
+        ChannelReadCache cache = new ChannelReadCache(4, sidecar);
+        cache.getChannel(apk.getPath());
+        cache.save();
+
+        ChannelModel channelModel = new ChannelReadCache(4, sidecar).getChannel(apk.getPath());
+        assertEquals("应用宝", channelModel.getChannelName());
+        assertEquals("春节", channelModel.getCampaign());
+    }
+
+    @Test
+    public void changedApkIsReadAgain() throws IOException {
+        File apk = newChannelApk(channelName("huawei"));
+        ChannelReadCache cache = new ChannelReadCache(4);
+        assertEquals("huawei", cache.getChannel(apk.getPath()).getChannelName());
+
+        // same length, newer modification time
+        long lastModified = apk.lastModified();
+        newGenerator(channelName("xiaomi")).generate(apk);
+        assertTrue(apk.setLastModified(lastModified + 2000));
+        assertEquals("xiaomi", cache.getChannel(apk.getPath()).getChannelName());
+
+        // other length, same modification time
+        lastModified = apk.lastModified();
+        newGenerator(channelName("tencent")).setTotalSize(65 * 1024).generate(apk);
+        assertTrue(apk.setLastModified(lastModified));
+        assertEquals("tencent", cache.getChannel(apk.getPath()).getChannelName());
+
+        // unchanged stamps are served from the cache
+        lastModified = apk.lastModified();
+        newGenerator(channelName("baidu00")).setTotalSize(65 * 1024).generate(apk);
+        assertTrue(apk.setLastModified(lastModified));
+        assertEquals("tencent", cache.getChannel(apk.getPath()).getChannelName());
+    }
+
+    @Test
+    public void leastRecentlyUsedApkIsEvicted() throws IOException {
+        File first = newChannelApk(channelName("first"));
+        File second = newChannelApk(channelName("second"));
+        File third = newChannelApk(channelName("third"));
+        ChannelReadCache cache = new ChannelReadCache(2);
+
+        cache.getChannel(first.getPath());
+        cache.getChannel(second.getPath());
+        // first is now more recently used than second
+        cache.getChannel(first.getPath());
+        cache.getChannel(third.getPath());
+
+        replaceChannelUnseen(first, channelName("FIRST"));
+        replaceChannelUnseen(second, channelName("SECOND"));
+        replaceChannelUnseen(third, channelName("THIRD"));
+        assertEquals("first", cache.getChannel(first.getPath()).getChannelName());
+        assertEquals("third", cache.getChannel(third.getPath()).getChannelName());
+        // evicted, read again
+        assertEquals("SECOND", cache.getChannel(second.getPath()).getChannelName());
+    }
+}
@@ -0,0 +1,39 @@
+package com.branch.v2.read;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelReadTest {
+
+    private static File newChannelApk(byte[] payload) throws IOException {
+        return new ApkGenerator()
+                .setEntryCount(4)
+                .setTotalSize(64 * 1024)
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID, payload)
+                .generate();
+    }
+
+    @Test
+    public void readsPayloadInPlatformCharset() throws IOException {
+        byte[] payload = "{\"channelName\":\"应用宝\"}".getBytes(Charset.forName("GBK"));
+        File apk = newChannelApk(payload);
+
+        // decoded as earlier versions did, with new String(payload)
+        assertEquals(ChannelModel.fromGson(new String(payload)).getChannelName(),
+                ChannelRead.getChannel(apk.getPath()).getChannelName());
+    }
+
+    @Test
+    public void malformedPayloadIsEmptyChannel() throws IOException {
+        File apk = newChannelApk("{\"channelName\":".getBytes(Charset.forName("UTF-8")));
+
+        assertEquals("", ChannelRead.getChannel(apk.getPath()).getChannelName());
+    }
+}
@@ -0,0 +1,73 @@
+package com.branch.v2.read.model;
+
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+
+public class ChannelModelTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final Charset GBK = Charset.forName("GBK");
+
+    /**
+     * The channel model as earlier versions wrote it with Gson.
+     */
+    private static class GsonChannelModel {
+        private String channelName;
+
+        GsonChannelModel(String channelName) {
+            this.channelName = channelName;
+        }
+    }
+
+    private static byte[] toGson(String channelName, Charset charset) {
+        return new Gson().toJson(new GsonChannelModel(channelName)).getBytes(charset);
+    }
+
+    /**
+     * Returns the channel name as earlier versions read it, in the platform charset with Gson.
+     */
+    private static String fromGson(byte[] payload) {
+        return new Gson().fromJson(new String(payload), GsonChannelModel.class).channelName;
+    }
+
+    @Test
+    public void readsUtf8GsonPayload() {
+        // Gson escapes HTML characters as \\u003c and the like
+        String channelName = "应用宝<a&b='c'>\t\"\\";
+        byte[] payload = toGson(channelName, UTF_8);
+
+        assertEquals(channelName, ChannelModel.fromBytes(ByteBuffer.wrap(payload)).getChannelName());
+    }
+
+    @Test
+    public void readsGbkGsonPayloadAsEarlierVersions() {
+        for (String channelName : new String[]{"应用宝", "华为市场", "中文渠道"}) {
+            byte[] payload = toGson(channelName, GBK);
+
+            assertEquals(fromGson(payload),
+                    ChannelModel.fromBytes(ByteBuffer.wrap(payload)).getChannelName());
+        }
+    }
+
+    @Test
+    public void payloadRoundTrips() {
+        ChannelModel channelModel = new ChannelModel("应用宝");
+        channelModel.put(ChannelModel.KEY_CAMPAIGN, "春节");
+        channelModel.put(ChannelModel.KEY_AB_BUCKET, 2);
+
+        ChannelModel decoded = ChannelModel.fromBytes(ByteBuffer.wrap(channelModel.getBytes()));
+        assertEquals("应用宝", decoded.getChannelName());
+        assertEquals("春节", decoded.getCampaign());
+        assertEquals(2, decoded.getAbBucket());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMalformedPayload() {
+        ChannelModel.fromBytes(ByteBuffer.wrap("{\"channelName\":".getBytes(UTF_8)));
+    }
+}
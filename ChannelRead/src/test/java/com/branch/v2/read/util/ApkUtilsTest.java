@@ -0,0 +1,125 @@
+package com.branch.v2.read.util;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import com.branch.v2.read.zip.ZipFormatException;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApkUtilsTest {
+
+    private static final int ENTRY_COUNT = 5;
+    private static final int CENTRAL_DIRECTORY_HEADER_SIG = 0x02014b50;
+    private static final int ZIP64_EOCD_LOCATOR_SIZE = 20;
+
+    private static ApkGenerator newGenerator() {
+        return new ApkGenerator()
+                .setEntryCount(ENTRY_COUNT)
+                .setTotalSize(256 * 1024)
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID,
+                        "{\"channelName\":\"huawei\"}".getBytes(Charset.forName("UTF-8")))
+                .setV2Digests(true);
+    }
+
+    private static ApkUtils.ZipSections findZipSections(File apk)
+            throws IOException, ZipFormatException {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            return ApkUtils.findZipSections(DataSources.asDataSource(file));
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void assertCentralDirectory(File apk, ApkUtils.ZipSections zipSections)
+            throws IOException {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            ByteBuffer header = DataSources.asDataSource(file)
+                    .getByteBuffer(zipSections.getZipCentralDirectoryOffset(), 4);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            assertEquals(CENTRAL_DIRECTORY_HEADER_SIG, header.getInt(0));
+        } finally {
+            file.close();
+        }
+        assertEquals(ENTRY_COUNT, zipSections.getZipCentralDirectoryRecordCount());
+        assertEquals(zipSections.getZipCentralDirectoryEndLimit(),
+                zipSections.getZipCentralDirectoryOffset()
+                        + zipSections.getZipCentralDirectorySizeBytes());
+    }
+
+    private static boolean verify(File apk) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            return new ApkSignatureVerifier().verify(DataSources.asDataSource(file));
+        } finally {
+            file.close();
+        }
+    }
+
+    @Test
+    public void findsZipSections() throws Exception {
+        File apk = newGenerator().generate();
+
+        ApkUtils.ZipSections zipSections = findZipSections(apk);
+        assertFalse(zipSections.isZip64());
+        assertEquals(-1, zipSections.getZip64EndOfCentralDirectoryOffset());
+        assertCentralDirectory(apk, zipSections);
+    }
+
+    @Test
+    public void findsZip64Sections() throws Exception {
+        File apk = newGenerator().setZip64(true).generate();
+
+        ApkUtils.ZipSections zipSections = findZipSections(apk);
+        assertTrue(zipSections.isZip64());
+        // the 32-bit fields are saturated, the sections come from the ZIP64 record
+        assertEquals(zipSections.getZip64EndOfCentralDirectoryOffset(),
+                zipSections.getZipCentralDirectoryEndLimit());
+        assertEquals(zipSections.getZipEndOfCentralDirectoryOffset() - ZIP64_EOCD_LOCATOR_SIZE,
+                zipSections.getZip64EndOfCentralDirectoryOffset()
+                        + zipSections.getZip64EndOfCentralDirectory().remaining());
+        assertCentralDirectory(apk, zipSections);
+        assertTrue(verify(apk));
+        assertEquals("huawei", ChannelRead.getChannel(apk.getPath()).getChannelName());
+    }
+
+    @Test
+    public void findsZip64SectionsWithComment() throws Exception {
+        File apk = newGenerator().setZip64(true).setCommentLength(1000).generate();
+
+        ApkUtils.ZipSections zipSections = findZipSections(apk);
+        assertTrue(zipSections.isZip64());
+        assertEquals(apk.length() - 22 - 1000, zipSections.getZipEndOfCentralDirectoryOffset());
+        assertCentralDirectory(apk, zipSections);
+        assertTrue(verify(apk));
+        assertEquals("huawei", ChannelRead.getChannel(apk.getPath()).getChannelName());
+    }
+
+    @Test(expected = ZipFormatException.class)
+    public void rejectsZip64LocatorPointingElsewhere() throws Exception {
+        File apk = newGenerator().setZip64(true).generate();
+        long zip64EocdOffset = findZipSections(apk).getZip64EndOfCentralDirectoryOffset();
+
+        // the record offset of the locator, now pointing into the Central Directory
+        RandomAccessFile file = new RandomAccessFile(apk, "rw");
+        try {
+            ByteBuffer recordOffset = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            recordOffset.putLong(0, zip64EocdOffset - 8);
+            file.getChannel().write(recordOffset, apk.length() - 22 - ZIP64_EOCD_LOCATOR_SIZE + 8);
+        } finally {
+            file.close();
+        }
+        findZipSections(apk);
+    }
+}
@@ -0,0 +1,193 @@
+package com.branch.v2.read.util;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AsyncDataSinkTest {
+
+    /**
+     * Sink passing data on to a {@link ByteArrayOutputStream} once {@link #mRelease} is counted
+     * down, counting down {@link #mEntered} on its first call.
+     */
+    private static class BlockingDataSink implements DataSink {
+        private final ByteArrayOutputStream mOut = new ByteArrayOutputStream();
+        private final DataSink mDelegate = DataSinks.asDataSink(mOut);
+        private final CountDownLatch mEntered = new CountDownLatch(1);
+        private final CountDownLatch mRelease = new CountDownLatch(1);
+
+        @Override
+        public void consume(byte[] buf, int offset, int length) throws IOException {
+            consume(ByteBuffer.wrap(buf, offset, length));
+        }
+
+        @Override
+        public void consume(ByteBuffer buf) throws IOException {
+            mEntered.countDown();
+            try {
+                mRelease.await();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            }
+            mDelegate.consume(buf);
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void passesDataOnInOrder() throws IOException {
+        byte[] data = new byte[100000];
+        Random random = new Random(42);
+        random.nextBytes(data);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        AsyncDataSink sink = new AsyncDataSink(DataSinks.asDataSink(out), 3, 1000);
+        int offset = 0;
+        while (offset < data.length) {
+            // chunks smaller than, equal to and spanning several buffers
+            int length = Math.min(data.length - offset, random.nextInt(3500));
+            if (random.nextBoolean()) {
+                sink.consume(data, offset, length);
+            } else {
+                ByteBuffer buf = ByteBuffer.allocateDirect(length + 2);
+                buf.position(1);
+                buf.put(data, offset, length);
+                buf.position(1);
+                buf.limit(1 + length);
+                sink.consume(buf);
+                assertEquals(1 + length, buf.position());
+            }
+            offset += length;
+            if (random.nextInt(20) == 0) {
+                sink.flush();
+                assertArrayEquals(Arrays.copyOf(data, offset), out.toByteArray());
+            }
+        }
+        sink.close();
+
+        assertArrayEquals(data, out.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void blocksWhenAllBuffersArePending() throws Exception {
+        final BlockingDataSink delegate = new BlockingDataSink();
+        final AsyncDataSink sink = new AsyncDataSink(delegate, 2, 4);
+        final AtomicInteger consumed = new AtomicInteger();
+        final byte[] data = new byte[32];
+        new Random(42).nextBytes(data);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 0; i < data.length; i++) {
+                        sink.consume(data, i, 1);
+                        consumed.incrementAndGet();
+                    }
+                    sink.close();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        producer.start();
+
+        delegate.mEntered.await();
+        while (producer.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        // one buffer being written, one queued, none left for the next byte
+        assertEquals(8, consumed.get());
+
+        delegate.mRelease.countDown();
+        producer.join();
+        assertEquals(data.length, consumed.get());
+        assertArrayEquals(data, delegate.mOut.toByteArray());
+    }
+
+    @Test(timeout = 10000)
+    public void rethrowsDelegateFailure() throws IOException {
+        final IOException failure = new IOException("disk full");
+        AsyncDataSink sink = new AsyncDataSink(new DataSink() {
+            @Override
+            public void consume(byte[] buf, int offset, int length) throws IOException {
+                throw failure;
+            }
+
+            @Override
+            public void consume(ByteBuffer buf) throws IOException {
+                throw failure;
+            }
+        }, 2, 4);
+
+        try {
+            // rethrown by the flush, or by the consume if the writer thread fails first
+            sink.consume(new byte[6], 0, 6);
+            sink.flush();
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+        // the producer is not blocked by the dropped buffers
+        try {
+            sink.consume(new byte[100], 0, 100);
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+        try {
+            sink.close();
+            fail();
+        } catch (IOException e) {
+            assertSame(failure, e.getCause());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void rethrowsWriterInterrupt() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final DataSink delegate = DataSinks.asDataSink(out);
+        AsyncDataSink sink = new AsyncDataSink(new DataSink() {
+            @Override
+            public void consume(byte[] buf, int offset, int length) throws IOException {
+                consume(ByteBuffer.wrap(buf, offset, length));
+            }
+
+            @Override
+            public void consume(ByteBuffer buf) throws IOException {
+                delegate.consume(buf);
+                // the writer thread stops on its next wait for a buffer
+                Thread.currentThread().interrupt();
+            }
+        }, 2, 4);
+
+        try {
+            // far more than the buffers hold, then a flush: neither may wait forever
+            for (int i = 0; i < 100; i++) {
+                sink.consume(new byte[4], 0, 4);
+            }
+            sink.flush();
+            fail();
+        } catch (InterruptedIOException e) {
+            assertTrue(out.size() >= 4);
+        }
+        try {
+            sink.close();
+            fail();
+        } catch (InterruptedIOException e) {
+            // expected
+        }
+    }
+}
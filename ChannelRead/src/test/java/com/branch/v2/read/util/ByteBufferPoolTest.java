@@ -0,0 +1,143 @@
+package com.branch.v2.read.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBufferPoolTest {
+
+    /**
+     * Empties the pool of the test thread, which earlier tests may have filled.
+     */
+    @Before
+    public void setUp() {
+        for (int size = ByteBufferPool.MIN_POOLED_SIZE; size <= ByteBufferPool.MAX_POOLED_SIZE;
+             size <<= 1) {
+            for (int i = 0; i < ByteBufferPool.MAX_BUFFERS_PER_SIZE; i++) {
+                ByteBufferPool.acquire(size);
+            }
+        }
+    }
+
+    @Test
+    public void roundsUpToSizeClass() {
+        int min = ByteBufferPool.MIN_POOLED_SIZE;
+        int max = ByteBufferPool.MAX_POOLED_SIZE;
+        int[][] sizes = {
+                {0, min}, {1, min}, {min - 1, min}, {min, min},
+                {min + 1, 2 * min}, {3 * min, 4 * min}, {4 * min, 4 * min},
+                {max - 1, max}, {max, max},
+                // not pooled, allocated as requested
+                {max + 1, max + 1}};
+        for (int[] size : sizes) {
+            ByteBuffer buf = ByteBufferPool.acquire(size[0]);
+            assertEquals(String.valueOf(size[0]), size[1], buf.capacity());
+            assertEquals(0, buf.position());
+            assertEquals(size[0], buf.limit());
+            assertTrue(buf.hasArray());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNegativeSize() {
+        ByteBufferPool.acquire(-1);
+    }
+
+    @Test
+    public void recycledBufferIsCleared() {
+        ByteBuffer buf = ByteBufferPool.acquire(5000);
+        buf.position(100);
+        buf.limit(200);
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        ByteBufferPool.release(buf);
+
+        // same size class, another size
+        ByteBuffer recycled = ByteBufferPool.acquire(6000);
+        assertSame(buf, recycled);
+        assertEquals(0, recycled.position());
+        assertEquals(6000, recycled.limit());
+        assertEquals(ByteOrder.BIG_ENDIAN, recycled.order());
+    }
+
+    @Test
+    public void keepsAtMostMaxBuffersPerSize() {
+        int count = ByteBufferPool.MAX_BUFFERS_PER_SIZE + 1;
+        List<ByteBuffer> released = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            released.add(ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE));
+        }
+        for (ByteBuffer buf : released) {
+            ByteBufferPool.release(buf);
+        }
+
+        Set<ByteBuffer> recycled =
+                Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+        for (int i = 0; i < count; i++) {
+            recycled.add(ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE));
+        }
+        int reused = 0;
+        for (ByteBuffer buf : released) {
+            if (recycled.contains(buf)) {
+                reused++;
+            }
+        }
+        assertEquals(ByteBufferPool.MAX_BUFFERS_PER_SIZE, reused);
+    }
+
+    @Test
+    public void sizeClassesAreSeparate() {
+        ByteBuffer small = ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE);
+        ByteBufferPool.release(small);
+
+        ByteBuffer large = ByteBufferPool.acquire(2 * ByteBufferPool.MIN_POOLED_SIZE);
+        assertNotSame(small, large);
+        assertSame(small, ByteBufferPool.acquire(1));
+    }
+
+    @Test
+    public void foreignBuffersAreNotPooled() {
+        ByteBuffer oversized = ByteBufferPool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1);
+        ByteBufferPool.release(oversized);
+        assertNotSame(oversized, ByteBufferPool.acquire(ByteBufferPool.MAX_POOLED_SIZE + 1));
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(ByteBufferPool.MIN_POOLED_SIZE);
+        ByteBufferPool.release(direct);
+        ByteBuffer odd = ByteBuffer.allocate(3 * ByteBufferPool.MIN_POOLED_SIZE);
+        ByteBufferPool.release(odd);
+        ByteBuffer buf = ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE);
+        assertNotSame(direct, buf);
+        assertFalse(buf.isDirect());
+        assertNotSame(odd, ByteBufferPool.acquire(3 * ByteBufferPool.MIN_POOLED_SIZE));
+    }
+
+    @Test
+    public void poolsArePerThread() throws InterruptedException {
+        final ByteBuffer buf = ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE);
+        ByteBufferPool.release(buf);
+
+        final ByteBuffer[] other = new ByteBuffer[1];
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                other[0] = ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE);
+            }
+        };
+        thread.start();
+        thread.join();
+        assertNotSame(buf, other[0]);
+        assertSame(buf, ByteBufferPool.acquire(ByteBufferPool.MIN_POOLED_SIZE));
+    }
+}
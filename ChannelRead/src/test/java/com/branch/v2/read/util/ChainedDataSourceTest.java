@@ -0,0 +1,205 @@
+package com.branch.v2.read.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ChainedDataSourceTest {
+
+    /**
+     * Offsets at which a part of {@link #mSource} starts or ends.
+     */
+    private static final int[] BOUNDARIES = {0, 5, 6, 20, 40, 43, 50, 64};
+
+    private byte[] mExpected;
+    private RandomAccessFile mFile;
+    private ChainedDataSource mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mExpected = new byte[64];
+        new Random(42).nextBytes(mExpected);
+
+        // bytes 20-39 of the expected content, read from a file
+        File file = File.createTempFile("chained-data-source-test-", ".bin");
+        file.deleteOnExit();
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.write(new byte[3]);
+        mFile.write(mExpected, 20, 20);
+        mFile.write(new byte[5]);
+        DataSource filePart = new FileChannelDataSource(mFile.getChannel(), 3, 20);
+
+        // empty parts first, last, in a row and nested
+        mSource = new ChainedDataSource(
+                part(0, 0),
+                part(0, 5),
+                part(5, 0),
+                part(5, 0),
+                part(5, 1),
+                part(6, 14),
+                filePart,
+                new ChainedDataSource(part(40, 3), part(43, 0), part(43, 7)),
+                new ChainedDataSource(),
+                part(50, 14),
+                part(64, 0));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mFile.close();
+    }
+
+    /**
+     * Returns a data source over {@code size} bytes of the expected content starting at
+     * {@code offset}, which is not backed by the expected array itself.
+     */
+    private DataSource part(int offset, int size) {
+        ByteBuffer buf = ByteBuffer.allocate(size + 2);
+        buf.put((byte) 0);
+        buf.put(mExpected, offset, size);
+        buf.put((byte) 0);
+        buf.position(1);
+        buf.limit(1 + size);
+        return DataSources.asDataSource(buf.slice());
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] result = new byte[buf.remaining()];
+        buf.duplicate().get(result);
+        return result;
+    }
+
+    private static byte[] read(DataSource source) throws IOException {
+        return toArray(source.getByteBuffer(0, (int) source.size()));
+    }
+
+    /**
+     * Asserts that every access path of {@code source}, which must hold {@code expected}, reads
+     * the same bytes for every range of it.
+     */
+    private static void assertReadsEveryRange(byte[] expected, DataSource source)
+            throws IOException {
+        assertEquals(expected.length, source.size());
+        for (int offset = 0; offset <= expected.length; offset++) {
+            for (int size = 0; offset + size <= expected.length; size++) {
+                String range = offset + "+" + size;
+                byte[] chunk = Arrays.copyOfRange(expected, offset, offset + size);
+
+                assertArrayEquals(range, chunk, toArray(source.getByteBuffer(offset, size)));
+
+                ByteBuffer dest = ByteBuffer.allocate(size + 4);
+                dest.position(2);
+                source.copyTo(offset, size, dest);
+                assertEquals(range, 2 + size, dest.position());
+                dest.flip();
+                dest.position(2);
+                assertArrayEquals(range, chunk, toArray(dest));
+
+                ByteArrayDataSink sink = new ByteArrayDataSink();
+                source.feed(offset, size, sink);
+                assertArrayEquals(range, chunk, read(sink));
+
+                DataSource slice = source.slice(offset, size);
+                assertEquals(range, size, slice.size());
+                assertArrayEquals(range, chunk, read(slice));
+
+                if (source instanceof ChainedDataSource) {
+                    ByteArrayOutputStream out = new ByteArrayOutputStream();
+                    ((ChainedDataSource) source).transferTo(
+                            offset, size, Channels.newChannel(out));
+                    assertArrayEquals(range, chunk, out.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readsEveryRange() throws IOException {
+        assertReadsEveryRange(mExpected, mSource);
+    }
+
+    private static boolean isNearBoundary(int offset) {
+        for (int boundary : BOUNDARIES) {
+            if (Math.abs(offset - boundary) <= 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    public void slicesReadEveryRange() throws IOException {
+        // slices starting or ending at, right before or right after a boundary
+        for (int offset = 0; offset <= mExpected.length; offset++) {
+            for (int size = 0; offset + size <= mExpected.length; size++) {
+                if (!isNearBoundary(offset) && !isNearBoundary(offset + size)) {
+                    continue;
+                }
+                assertReadsEveryRange(Arrays.copyOfRange(mExpected, offset, offset + size),
+                        mSource.slice(offset, size));
+            }
+        }
+    }
+
+    @Test
+    public void transfersToFile() throws IOException {
+        File file = File.createTempFile("chained-data-source-test-", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            mSource.transferTo(0, mSource.size(), out.getChannel());
+            // and once more from a boundary inside the file part
+            mSource.transferTo(20, 44, out.getChannel());
+        } finally {
+            out.close();
+        }
+
+        byte[] expected = new byte[64 + 44];
+        System.arraycopy(mExpected, 0, expected, 0, 64);
+        System.arraycopy(mExpected, 20, expected, 64, 44);
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            assertArrayEquals(expected, read(DataSources.asDataSource(in)));
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void emptyChain() throws IOException {
+        ChainedDataSource empty = new ChainedDataSource(part(0, 0), new ChainedDataSource());
+
+        assertReadsEveryRange(new byte[0], empty);
+        assertReadsEveryRange(new byte[0], new ChainedDataSource());
+    }
+
+    @Test
+    public void rejectsRangesOutOfBounds() throws IOException {
+        long[][] ranges = {{-1, 1}, {0, -1}, {0, 65}, {64, 1}, {65, 0}, {1, Long.MAX_VALUE}};
+        for (long[] range : ranges) {
+            try {
+                mSource.slice(range[0], range[1]);
+                fail(range[0] + "+" + range[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+            try {
+                mSource.feed(range[0], range[1], new ByteArrayDataSink());
+                fail(range[0] + "+" + range[1]);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
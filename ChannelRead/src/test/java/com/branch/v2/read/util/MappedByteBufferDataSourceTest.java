@@ -0,0 +1,151 @@
+package com.branch.v2.read.util;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MappedByteBufferDataSourceTest {
+
+    /**
+     * Segments of 16 bytes, so the 100 byte file spans 7 segments, the last one partial.
+     */
+    private static final int SEGMENT_SHIFT = 4;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+    private byte[] mExpected;
+    private RandomAccessFile mFile;
+    private MappedByteBufferDataSource mSource;
+
+    @Before
+    public void setUp() throws IOException {
+        mExpected = new byte[100];
+        new Random(42).nextBytes(mExpected);
+        File file = File.createTempFile("mapped-data-source-test-", ".bin");
+        file.deleteOnExit();
+        mFile = new RandomAccessFile(file, "rw");
+        mFile.write(mExpected);
+        mSource = new MappedByteBufferDataSource(
+                mFile.getChannel(), FileChannel.MapMode.READ_ONLY, SEGMENT_SHIFT);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mFile.close();
+    }
+
+    private static byte[] toArray(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.remaining()];
+        buf.get(bytes);
+        return bytes;
+    }
+
+    private byte[] expected(int offset, int size) {
+        return Arrays.copyOfRange(mExpected, offset, offset + size);
+    }
+
+    private static byte[] feed(DataSource source, long offset, long size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final int[] maxChunkSize = {0};
+        source.feed(offset, size, new DataSink() {
+            @Override
+            public void consume(byte[] buf, int offset, int length) {
+                out.write(buf, offset, length);
+            }
+
+            @Override
+            public void consume(ByteBuffer buf) {
+                maxChunkSize[0] = Math.max(maxChunkSize[0], buf.remaining());
+                byte[] bytes = toArray(buf);
+                consume(bytes, 0, bytes.length);
+            }
+        });
+        assertTrue(maxChunkSize[0] <= SEGMENT_SIZE);
+        return out.toByteArray();
+    }
+
+    private void assertReads(DataSource source, int sourceOffset) throws IOException {
+        int size = (int) source.size();
+        for (int offset = 0; offset <= size; offset++) {
+            for (int chunkSize = 0; offset + chunkSize <= size; chunkSize++) {
+                String message = sourceOffset + "+" + offset + "+" + chunkSize;
+                byte[] expected = expected(sourceOffset + offset, chunkSize);
+
+                assertArrayEquals(message, expected,
+                        toArray(source.getByteBuffer(offset, chunkSize)));
+
+                ByteBuffer dest = ByteBuffer.allocate(chunkSize + 2);
+                dest.position(1);
+                source.copyTo(offset, chunkSize, dest);
+                assertEquals(message, 1 + chunkSize, dest.position());
+                dest.flip();
+                dest.position(1);
+                assertArrayEquals(message, expected, toArray(dest));
+
+                assertArrayEquals(message, expected, feed(source, offset, chunkSize));
+            }
+        }
+    }
+
+    @Test
+    public void readsAcrossSegments() throws IOException {
+        assertEquals(mExpected.length, mSource.size());
+        assertReads(mSource, 0);
+    }
+
+    @Test
+    public void slicesReadAcrossSegments() throws IOException {
+        // slices starting and ending on, just before and just after segment boundaries
+        int[] edges = {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1,
+                3 * SEGMENT_SIZE - 1, 3 * SEGMENT_SIZE, 3 * SEGMENT_SIZE + 1,
+                6 * SEGMENT_SIZE - 1, 6 * SEGMENT_SIZE, 99, 100};
+        for (int start : edges) {
+            for (int end : edges) {
+                if (end >= start) {
+                    DataSource slice = mSource.slice(start, end - start);
+                    assertEquals(end - start, slice.size());
+                    assertReads(slice, start);
+                    // a slice of a slice
+                    if (end - start >= 2) {
+                        assertReads(slice.slice(1, end - start - 2), start + 1);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void viewsWithinSegmentAreReadOnly() {
+        ByteBuffer view = mSource.getByteBuffer(SEGMENT_SIZE, SEGMENT_SIZE);
+        assertTrue(view.isReadOnly());
+        assertArrayEquals(expected(SEGMENT_SIZE, SEGMENT_SIZE), toArray(view));
+    }
+
+    @Test
+    public void fileOfWholeSegments() throws IOException {
+        File file = File.createTempFile("mapped-data-source-test-", ".bin");
+        file.deleteOnExit();
+        RandomAccessFile wholeSegments = new RandomAccessFile(file, "rw");
+        try {
+            wholeSegments.write(mExpected, 0, 4 * SEGMENT_SIZE);
+            MappedByteBufferDataSource source = new MappedByteBufferDataSource(
+                    wholeSegments.getChannel(), FileChannel.MapMode.READ_ONLY, SEGMENT_SHIFT);
+            assertEquals(4 * SEGMENT_SIZE, source.size());
+            assertReads(source, 0);
+        } finally {
+            wholeSegments.close();
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.branch.v2.read.zip;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Pair;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class ZipUtilsTest {
+
+    private static final int EOCD_REC_MIN_SIZE = 22;
+    private static final int EOCD_REC_SIG = 0x06054b50;
+    private static final int MAX_COMMENT_LENGTH = 0xffff;
+    private static final int PREFIX_SIZE = 61;
+
+    /**
+     * The scan the long at a time scan replaced, one candidate start position at a time, over the
+     * first {@code size} bytes of {@code zip}.
+     */
+    private static int byteScan(byte[] zip, int size) {
+        if (size < EOCD_REC_MIN_SIZE) {
+            return -1;
+        }
+        int maxCommentLength = Math.min(size - EOCD_REC_MIN_SIZE, MAX_COMMENT_LENGTH);
+        int eocdWithEmptyCommentStartPosition = size - EOCD_REC_MIN_SIZE;
+        for (int commentLength = 0; commentLength <= maxCommentLength; commentLength++) {
+            int pos = eocdWithEmptyCommentStartPosition - commentLength;
+            if (zip[pos] == 'P' && zip[pos + 1] == 'K' && zip[pos + 2] == 5 && zip[pos + 3] == 6
+                    && ((zip[pos + 20] & 0xff) | (zip[pos + 21] & 0xff) << 8) == commentLength) {
+                return pos;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns random bytes, one in sixteen of them 'P' and with EOCD signatures here and there, so
+     * the scan meets many candidates and false signatures.
+     */
+    private static byte[] newNoise(int size, long seed) {
+        Random random = new Random(seed);
+        byte[] noise = new byte[size];
+        random.nextBytes(noise);
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(16) == 0) {
+                noise[i] = 'P';
+            }
+        }
+        for (int i = 0; i + 4 <= size; i += 1 + random.nextInt(256)) {
+            noise[i] = 'P';
+            noise[i + 1] = 'K';
+            noise[i + 2] = 5;
+            noise[i + 3] = 6;
+        }
+        return noise;
+    }
+
+    private static ByteBuffer wrap(byte[] array, int size) {
+        ByteBuffer buf = ByteBuffer.wrap(array, 0, size).slice();
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    @Test
+    public void findsEocdAtEveryCommentLength() {
+        int maxSize = PREFIX_SIZE + EOCD_REC_MIN_SIZE + MAX_COMMENT_LENGTH;
+        byte[] noise = newNoise(maxSize, 42);
+        byte[] zip = noise.clone();
+        for (int commentLength = 0; commentLength <= MAX_COMMENT_LENGTH; commentLength++) {
+            int size = PREFIX_SIZE + EOCD_REC_MIN_SIZE + commentLength;
+            ByteBuffer buf = wrap(zip, size);
+            buf.putInt(PREFIX_SIZE, EOCD_REC_SIG);
+            buf.putShort(PREFIX_SIZE + 20, (short) commentLength);
+
+            // a false signature in the comment whose length happens to match ends both scans
+            // early, so the result is compared with the byte scan rather than PREFIX_SIZE
+            assertEquals("comment length " + commentLength,
+                    byteScan(zip, size), ZipUtils.findZipEndOfCentralDirectoryRecord(buf));
+
+            System.arraycopy(noise, PREFIX_SIZE, zip, PREFIX_SIZE, EOCD_REC_MIN_SIZE);
+        }
+    }
+
+    @Test
+    public void prefersShortestComment() {
+        int size = PREFIX_SIZE + EOCD_REC_MIN_SIZE + 1000;
+        for (int shortCommentLength = 0; shortCommentLength < 64; shortCommentLength++) {
+            byte[] zip = newNoise(size, shortCommentLength);
+            ByteBuffer buf = wrap(zip, size);
+            buf.putInt(PREFIX_SIZE, EOCD_REC_SIG);
+            buf.putShort(PREFIX_SIZE + 20, (short) 1000);
+            // a record in the comment of the first one, ending the file as well
+            int shortEocdPos = size - EOCD_REC_MIN_SIZE - shortCommentLength;
+            buf.putInt(shortEocdPos, EOCD_REC_SIG);
+            buf.putShort(shortEocdPos + 20, (short) shortCommentLength);
+
+            assertEquals(shortEocdPos, byteScan(zip, size));
+            assertEquals(shortEocdPos, ZipUtils.findZipEndOfCentralDirectoryRecord(buf));
+        }
+    }
+
+    @Test
+    public void agreesWithByteScanWithoutEocd() {
+        for (long seed = 0; seed < 16; seed++) {
+            byte[] noise = newNoise(EOCD_REC_MIN_SIZE + MAX_COMMENT_LENGTH + PREFIX_SIZE, seed);
+            for (int size = 0; size < 64; size++) {
+                ByteBuffer buf = wrap(noise, size);
+                assertEquals("size " + size, byteScan(noise, size),
+                        ZipUtils.findZipEndOfCentralDirectoryRecord(buf));
+            }
+            ByteBuffer buf = wrap(noise, noise.length);
+            assertEquals(byteScan(noise, noise.length),
+                    ZipUtils.findZipEndOfCentralDirectoryRecord(buf));
+        }
+    }
+
+    @Test
+    public void findsEocdOfApkWithComment() throws Exception {
+        for (int commentLength : new int[]{0, 1, 7, 8, 9, 4096, MAX_COMMENT_LENGTH}) {
+            File apk = new ApkGenerator().setEntryCount(2).setTotalSize(128 * 1024)
+                    .setCommentLength(commentLength).generate();
+            RandomAccessFile file = new RandomAccessFile(apk, "r");
+            try {
+                Pair<ByteBuffer, Long> eocd = ZipUtils.findZipEndOfCentralDirectoryRecord(
+                        DataSources.asDataSource(file));
+                assertEquals(apk.length() - EOCD_REC_MIN_SIZE - commentLength,
+                        (long) eocd.getSecond());
+            } finally {
+                file.close();
+            }
+            apk.delete();
+        }
+    }
+}
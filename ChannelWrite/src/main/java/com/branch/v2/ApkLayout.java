@@ -0,0 +1,341 @@
+package com.branch.v2;
+
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.DataSource;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.util.Pair;
+import com.branch.v2.read.zip.ZipFormatException;
+import com.branch.v2.read.zip.ZipUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Immutable layout of a signed base APK, parsed once and shared by every channel variant.
+ * <p>
+ * <p>A channel APK only differs from its base APK in the APK Signing Block and in the offsets
+ * recorded in the records following the Central Directory:
+ * <ul>
+ * <li>[0, apkSigningBlockOffset) ZIP entries, copied as is</li>
+ * <li>APK Signing Block, rebuilt with the channel ID-value pair appended. A channel pair the base
+ * APK already carries is dropped, so re-channelling replaces the channel instead of adding a
+ * second one</li>
+ * <li>ZIP Central Directory, copied as is</li>
+ * <li>ZIP64 End of Central Directory record and locator if the APK is a ZIP64 archive, offsets
+ * patched</li>
+ * <li>ZIP End of Central Directory, Central Directory offset patched</li>
+ * </ul>
+ * <p>
+ * <p>All offsets are 64-bit. Note that Android does not verify APK Signature Scheme v2 signatures
+ * of ZIP64 APKs, such APKs are written correctly but only install if signed with v1.
+ */
+public class ApkLayout {
+
+    private final long mApkSize;
+    private final long mApkSigningBlockOffset;
+    private final int mApkSigningBlockSize;
+    private final ByteBuffer mApkSigningBlockPairs;
+    private final long mChannelValueOffset;
+    private final int mChannelValueSize;
+    private final long mCentralDirectoryOffset;
+    private final long mCentralDirectorySizeBytes;
+    private final ByteBuffer mEndRecords;
+    private final long mZip64EocdOffset;
+    private final int mEocdPositionInEndRecords;
+
+    private ApkLayout(
+            long apkSize,
+            long apkSigningBlockOffset,
+            int apkSigningBlockSize,
+            ByteBuffer apkSigningBlockPairs,
+            long channelValueOffset,
+            int channelValueSize,
+            long centralDirectoryOffset,
+            long centralDirectorySizeBytes,
+            ByteBuffer endRecords,
+            long zip64EocdOffset,
+            int eocdPositionInEndRecords) {
+        mApkSize = apkSize;
+        mApkSigningBlockOffset = apkSigningBlockOffset;
+        mApkSigningBlockSize = apkSigningBlockSize;
+        mApkSigningBlockPairs = apkSigningBlockPairs;
+        mChannelValueOffset = channelValueOffset;
+        mChannelValueSize = channelValueSize;
+        mCentralDirectoryOffset = centralDirectoryOffset;
+        mCentralDirectorySizeBytes = centralDirectorySizeBytes;
+        mEndRecords = endRecords;
+        mZip64EocdOffset = zip64EocdOffset;
+        mEocdPositionInEndRecords = eocdPositionInEndRecords;
+    }
+
+    /**
+     * Parses the ZIP sections and the APK Signing Block of the provided APK.
+     *
+     * @throws IOException                         if an I/O error occurred while reading the APK
+     * @throws ZipFormatException                  if the APK is malformed
+     * @throws ApkUtils.SignatureNotFoundException if the APK does not contain an APK Signing Block
+     */
+    public static ApkLayout parse(DataSource apk)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        ApkUtils.ZipSections zipSections = ApkUtils.findZipSections(apk);
+        Pair<DataSource, Long> apkSigningBlockAndOffset =
+                ApkUtils.findApkSigningBlock(apk, zipSections);
+        DataSource apkSigningBlock = apkSigningBlockAndOffset.getFirst();
+        long apkSigningBlockOffset = apkSigningBlockAndOffset.getSecond();
+        int apkSigningBlockSize = (int) apkSigningBlock.size();
+
+        // FORMAT:
+        // * @+0  bytes uint64:    size in bytes (excluding this field)
+        // * @+8  bytes pairs
+        // * @-24 bytes uint64:    size in bytes (same as the one above)
+        // * @-16 bytes uint128:   magic
+        ByteBuffer block = apkSigningBlock.getByteBuffer(0, apkSigningBlockSize);
+        block.order(ByteOrder.LITTLE_ENDIAN);
+        int channelEntryOffset = ApkUtils.findApkSigningBlockEntry(
+                block, ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID);
+        ByteBuffer pairs;
+        long channelValueOffset = -1;
+        int channelValueSize = 0;
+        if (channelEntryOffset == -1) {
+            pairs = apkSigningBlock.getByteBuffer(8, apkSigningBlockSize - 32);
+        } else {
+            pairs = removePairs(block, ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID);
+            channelValueOffset = apkSigningBlockOffset + channelEntryOffset + 12;
+            channelValueSize = (int) block.getLong(channelEntryOffset) - 4;
+            Log.log("existing channel offset: " + channelValueOffset
+                    + " size: " + channelValueSize);
+        }
+
+        // ZIP64 End of Central Directory record and locator if any, End of Central Directory
+        long endRecordsOffset = zipSections.getZipCentralDirectoryEndLimit();
+        int endRecordsSize = (int) (apk.size() - endRecordsOffset);
+        ByteBuffer endRecords = ByteBuffer.allocate(endRecordsSize);
+        apk.copyTo(endRecordsOffset, endRecordsSize, endRecords);
+        endRecords.flip();
+
+        if (zipSections.isZip64()) {
+            Log.log("zip64 apk: APK Signature Scheme v2 is not verified by Android for zip64 apks");
+        }
+        Log.log("apksigblock offset: " + apkSigningBlockOffset
+                + " size: " + apkSigningBlockSize
+                + " cd offset: " + zipSections.getZipCentralDirectoryOffset());
+
+        return new ApkLayout(
+                apk.size(),
+                apkSigningBlockOffset,
+                apkSigningBlockSize,
+                pairs.asReadOnlyBuffer(),
+                channelValueOffset,
+                channelValueSize,
+                zipSections.getZipCentralDirectoryOffset(),
+                zipSections.getZipCentralDirectorySizeBytes(),
+                endRecords.asReadOnlyBuffer(),
+                zipSections.getZip64EndOfCentralDirectoryOffset(),
+                (int) (zipSections.getZipEndOfCentralDirectoryOffset() - endRecordsOffset));
+    }
+
+    /**
+     * Returns the ID-value pairs of the provided APK Signing Block without the pairs with the
+     * provided ID. The block must have been validated with
+     * {@link ApkUtils#findApkSigningBlockEntry(ByteBuffer, int)}.
+     */
+    private static ByteBuffer removePairs(ByteBuffer apkSigningBlock, int id) {
+        int pairsEnd = apkSigningBlock.capacity() - 24;
+        ByteBuffer pairs = ByteBuffer.allocate(pairsEnd - 8);
+        int position = 8;
+        while (position < pairsEnd) {
+            int pairSize = 8 + (int) apkSigningBlock.getLong(position);
+            if (apkSigningBlock.getInt(position + 8) != id) {
+                ByteBuffer pair = apkSigningBlock.duplicate();
+                pair.limit(position + pairSize);
+                pair.position(position);
+                pairs.put(pair);
+            }
+            position += pairSize;
+        }
+        pairs.flip();
+        return pairs;
+    }
+
+    /**
+     * Returns the size (in bytes) of the base APK.
+     */
+    public long getApkSize() {
+        return mApkSize;
+    }
+
+    /**
+     * Returns the offset of the APK Signing Block, which is also the size of the ZIP entries
+     * region preceding it.
+     */
+    public long getApkSigningBlockOffset() {
+        return mApkSigningBlockOffset;
+    }
+
+    /**
+     * Returns the size (in bytes) of the base APK Signing Block, including both size fields and
+     * the magic.
+     */
+    public int getApkSigningBlockSize() {
+        return mApkSigningBlockSize;
+    }
+
+    /**
+     * Returns the offset of the value of the base APK's channel pair, or {@code -1} if the base
+     * APK has no channel. If it has several the last one is returned, the one readers use.
+     */
+    public long getChannelValueOffset() {
+        return mChannelValueOffset;
+    }
+
+    /**
+     * Returns the size (in bytes) of the value of the base APK's channel pair, including any
+     * padding, or {@code 0} if the base APK has no channel.
+     */
+    public int getChannelValueSize() {
+        return mChannelValueSize;
+    }
+
+    /**
+     * Returns the start offset of the ZIP Central Directory in the base APK.
+     */
+    public long getCentralDirectoryOffset() {
+        return mCentralDirectoryOffset;
+    }
+
+    /**
+     * Returns the size (in bytes) of the ZIP Central Directory.
+     */
+    public long getCentralDirectorySizeBytes() {
+        return mCentralDirectorySizeBytes;
+    }
+
+    /**
+     * Returns whether the base APK is a ZIP64 archive.
+     */
+    public boolean isZip64() {
+        return mZip64EocdOffset != -1;
+    }
+
+    /**
+     * Returns the number of bytes a channel pair carrying {@code channelLength} bytes of value
+     * adds to the APK Signing Block.
+     */
+    public static int getChannelPairSize(int channelLength) {
+        // 8 size + 4 key + value
+        return 8 + 4 + channelLength;
+    }
+
+    /**
+     * Returns the start offset of the ZIP Central Directory in the channel APK produced for the
+     * provided channel value.
+     */
+    public long getChannelCentralDirectoryOffset(int channelLength) {
+        return mApkSigningBlockOffset + 8 + mApkSigningBlockPairs.remaining()
+                + getChannelPairSize(channelLength) + 24;
+    }
+
+    /**
+     * Returns the size (in bytes) of the channel APK produced for the provided channel value.
+     */
+    public long getChannelApkSize(int channelLength) {
+        return getChannelCentralDirectoryOffset(channelLength)
+                + (mApkSize - mCentralDirectoryOffset);
+    }
+
+    /**
+     * Returns {@code value} followed by spaces up to {@code slotSize} bytes. Readers ignore the
+     * whitespace after the JSON object, so a channel value can be given a fixed size and later be
+     * replaced in place by any value that fits. The returned buffer is ready to be read and
+     * backed by an array.
+     */
+    static ByteBuffer newChannelSlot(byte[] value, int slotSize) {
+        ByteBuffer slot = ByteBuffer.allocate(slotSize);
+        slot.put(value);
+        while (slot.hasRemaining()) {
+            slot.put((byte) ' ');
+        }
+        slot.flip();
+        return slot;
+    }
+
+    /**
+     * Returns a new APK Signing Block holding the base ID-value pairs followed by the channel
+     * pair. The returned buffer is ready to be read.
+     */
+    public ByteBuffer newApkSigningBlock(byte[] channel) {
+        final int newBlockSize =
+                8 + mApkSigningBlockPairs.remaining() + getChannelPairSize(channel.length) + 24;
+        ByteBuffer block = ByteBuffer.allocate(newBlockSize);
+        block.order(ByteOrder.LITTLE_ENDIAN);
+
+        // block size exclude this field
+        block.putLong(newBlockSize - 8);
+        block.put(mApkSigningBlockPairs.duplicate());
+
+        /**
+         * channel
+         * 8 size（value size +key size）
+         * +4 key
+         * +size-4 value
+         */
+        block.putLong(channel.length + 4);
+        block.putInt(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID);
+        block.put(channel);
+
+        block.putLong(newBlockSize - 8);
+        block.putLong(ApkUtils.APK_SIG_BLOCK_MAGIC_LO);
+        block.putLong(ApkUtils.APK_SIG_BLOCK_MAGIC_HI);
+        block.flip();
+        return block;
+    }
+
+    /**
+     * Returns a copy of the base records following the Central Directory, pointing at the
+     * provided Central Directory offset: the ZIP64 End of Central Directory record and locator if
+     * the APK is a ZIP64 archive, and the End of Central Directory record. The returned buffer is
+     * ready to be read.
+     *
+     * @throws IllegalArgumentException if the APK is not a ZIP64 archive and the offset does not
+     *                                  fit the 32-bit field of the End of Central Directory record
+     */
+    public ByteBuffer newEndOfCentralDirectory(long centralDirectoryOffset) {
+        ByteBuffer endRecords = ByteBuffer.allocate(mEndRecords.remaining());
+        endRecords.order(ByteOrder.LITTLE_ENDIAN);
+        endRecords.put(mEndRecords.duplicate());
+        endRecords.flip();
+
+        ByteBuffer eocd = recordAt(endRecords, mEocdPositionInEndRecords);
+        if (isZip64()) {
+            long shift = centralDirectoryOffset - mCentralDirectoryOffset;
+            ZipUtils.setZip64EocdCentralDirectoryOffset(
+                    recordAt(endRecords, 0), centralDirectoryOffset);
+            ZipUtils.setZip64EocdLocatorRecordOffset(
+                    recordAt(endRecords,
+                            mEocdPositionInEndRecords - ZipUtils.ZIP64_EOCD_LOCATOR_SIZE),
+                    mZip64EocdOffset + shift);
+            // 0xffffffff defers to the ZIP64 record, keep it. Otherwise patch the 32-bit field
+            // too, saturating it once the offset no longer fits.
+            if (ZipUtils.getZipEocdCentralDirectoryOffset(eocd) != 0xffffffffL) {
+                ZipUtils.setZipEocdCentralDirectoryOffset(
+                        eocd, Math.min(centralDirectoryOffset, 0xffffffffL));
+            }
+        } else {
+            if (centralDirectoryOffset > 0xffffffffL) {
+                throw new IllegalArgumentException(
+                        "Central Directory offset " + centralDirectoryOffset
+                                + " exceeds 4 GB, the APK must be a zip64 archive");
+            }
+            ZipUtils.setZipEocdCentralDirectoryOffset(eocd, centralDirectoryOffset);
+        }
+        return endRecords;
+    }
+
+    private static ByteBuffer recordAt(ByteBuffer endRecords, int position) {
+        ByteBuffer record = endRecords.duplicate();
+        record.order(ByteOrder.LITTLE_ENDIAN);
+        record.position(position);
+        return record;
+    }
+}
@@ -0,0 +1,578 @@
+package com.branch.v2;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkSignatureVerifier;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.ChainedDataSource;
+import com.branch.v2.read.util.DataSink;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.util.FileChannelDataSource;
+import com.branch.v2.read.util.Pair;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Writes any number of channel APKs from one base APK. The base APK is opened and parsed once,
+ * each channel then only costs its own channel bytes and the output I/O.
+ * <p>
+ * <p>Instances are safe for use by multiple threads: the base APK is only read at explicit
+ * positions through a {@link FileChannelDataSource} and the parsed layout is immutable.
+ */
+public class ChannelBatchWriter implements Closeable {
+
+    /**
+     * Default size (in bytes) of the channel slot of a template.
+     */
+    public static final int DEFAULT_TEMPLATE_SLOT_SIZE = 512;
+
+    private static final byte[] TEMPLATE_PLACEHOLDER = {'{', '}'};
+
+    private final String mInputApkPath;
+    private final FileChannelDataSource mApk;
+    private final ApkLayout mLayout;
+
+    private volatile boolean mCloneOutput;
+    private volatile boolean mTemplateOutput;
+    private volatile boolean mVerifyOutput;
+    private ApkSignatureVerifier mVerifier;
+    private IOException mVerifierFailure;
+    private final Map<String, File> mPrefixFiles = new HashMap<>();
+
+    public ChannelBatchWriter(String inputApkPath)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        mInputApkPath = inputApkPath;
+        mApk = new FileChannelDataSource(new RandomAccessFile(inputApkPath, "r").getChannel());
+        try {
+            mLayout = ApkLayout.parse(mApk);
+        } catch (IOException | ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            mApk.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the parsed layout of the base APK.
+     */
+    public ApkLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Sets whether channel APKs are produced from a copy of the base APK's ZIP entries region
+     * written once into the output directory, instead of transferring that region from the base
+     * APK for every channel. Off by default.
+     * <p>
+     * <p>The region before the APK Signing Block is identical in every channel APK. In clone mode
+     * it is written once to a temporary file next to the outputs, and each channel APK starts as
+     * a {@link FileChannel#transferTo} of it, followed by the channel specific tail. Every channel
+     * APK is still written in full, the mode only moves the reads of the ZIP entries from the
+     * base APK's volume to the output volume: it pays off when the base APK is on a slower or
+     * remote volume, and costs one extra write of the prefix otherwise.
+     */
+    public void setCloneOutput(boolean cloneOutput) {
+        mCloneOutput = cloneOutput;
+    }
+
+    /**
+     * Sets whether the base APK is a channel template, see {@link #writeTemplate(String, int)},
+     * and channel APKs are produced by copying it and writing the channel over its channel slot.
+     * Off by default, overrides {@link #setCloneOutput(boolean)}.
+     * <p>
+     * <p>The slot has a fixed size, so the channel is the only difference between the template
+     * and a channel APK: each channel costs a file copy and a positional write of the slot. A
+     * channel that does not fit the slot fails with an {@link IllegalArgumentException}. A base
+     * APK whose slot is not empty, i.e. a channel APK rather than a template, fails every channel
+     * with an {@link IllegalStateException}.
+     */
+    public void setTemplateOutput(boolean templateOutput) {
+        mTemplateOutput = templateOutput;
+    }
+
+    /**
+     * Sets whether each channel APK written to a file is checked against the APK Signature Scheme
+     * v2 digests of the base APK, see {@link ApkSignatureVerifier}. Off by default.
+     * <p>
+     * <p>The base APK is verified in full on the first write, if it fails no channel APK is
+     * written. Each channel APK then only costs
+     * digesting its Central Directory and End of Central Directory, the ZIP entries are the base's
+     * and their digests are reused. A channel APK that fails verification is deleted and its
+     * channel fails with an {@link IOException}.
+     */
+    public void setVerifyOutput(boolean verifyOutput) {
+        mVerifyOutput = verifyOutput;
+    }
+
+    /**
+     * Writes the channel APK for {@code channelName} into {@code outputApkDir}. The unchanged
+     * regions of the base APK are transferred file to file by the operating system, only the
+     * rebuilt APK Signing Block and End of Central Directory go through user space.
+     *
+     * @return the written channel APK
+     */
+    public File writeChannel(String outputApkDir, String channelName) throws IOException {
+        return writeChannel(outputApkDir, new ChannelModel(channelName));
+    }
+
+    /**
+     * Writes the channel APK carrying {@code channelModel} into {@code outputApkDir}, see
+     * {@link #writeChannel(String, String)}.
+     *
+     * @return the written channel APK
+     */
+    public File writeChannel(String outputApkDir, ChannelModel channelModel) throws IOException {
+        File channelApkFile = getChannelApkFile(outputApkDir, channelModel);
+        Log.log("output: " + channelApkFile.getPath());
+
+        // the base APK is verified before anything is written
+        ApkSignatureVerifier verifier = mVerifyOutput ? getVerifier() : null;
+        byte[] channel = channelModel.getBytes();
+        if (mTemplateOutput) {
+            patchTemplate(channelApkFile, channel, channelModel.getChannelName());
+        } else {
+            writeChannelApk(channelApkFile, channel,
+                    mCloneOutput ? getPrefixFile(outputApkDir) : null);
+        }
+        if (verifier != null) {
+            verifyChannelApk(verifier, channelApkFile);
+        }
+        return channelApkFile;
+    }
+
+    /**
+     * Returns the file the channel APK carrying {@code channelModel} is written to, see
+     * {@link ApkUtils#getChannelApkFile}. A channel with key/value pairs has a hash of its payload
+     * appended to its name, so channels sharing a name, e.g. the A/B buckets of one channel, are
+     * written to different files.
+     *
+     * @throws IllegalArgumentException if the channel name holds a path separator
+     */
+    public File getChannelApkFile(String outputApkDir, ChannelModel channelModel) {
+        String name = channelModel.getChannelName();
+        if (name.indexOf('/') != -1 || name.indexOf('\\') != -1 || name.indexOf('\0') != -1) {
+            throw new IllegalArgumentException("Channel name must not hold a path separator: "
+                    + name);
+        }
+        if (!channelModel.getValues().isEmpty()) {
+            CRC32 crc = new CRC32();
+            crc.update(channelModel.getBytes());
+            name += String.format("-%08x", crc.getValue());
+        }
+        return ApkUtils.getChannelApkFile(mInputApkPath, outputApkDir, name);
+    }
+
+    /**
+     * Writes a channel template of the base APK to {@code templateApkPath}: the base APK with a
+     * channel pair whose value is an empty JSON object padded with spaces to {@code slotSize}
+     * bytes. See {@link #setTemplateOutput(boolean)}.
+     */
+    public File writeTemplate(String templateApkPath, int slotSize) throws IOException {
+        if (slotSize < TEMPLATE_PLACEHOLDER.length) {
+            throw new IllegalArgumentException("slotSize: " + slotSize);
+        }
+        File templateApkFile = new File(templateApkPath);
+        ByteBuffer slot = ApkLayout.newChannelSlot(TEMPLATE_PLACEHOLDER, slotSize);
+        writeChannelApk(templateApkFile, slot.array(), null);
+        Log.log("template: " + templateApkFile.getPath() + " slot size: " + slotSize);
+        return templateApkFile;
+    }
+
+    /**
+     * Writes a channel APK carrying {@code channel}, starting from a copy of
+     * {@code prefixFile} if not {@code null}.
+     */
+    private void writeChannelApk(File channelApkFile, byte[] channel, File prefixFile)
+            throws IOException {
+        ByteBuffer apkSigningBlock = mLayout.newApkSigningBlock(channel);
+        ByteBuffer eocd = mLayout.newEndOfCentralDirectory(
+                mLayout.getChannelCentralDirectoryOffset(channel.length));
+
+        FileOutputStream out = new FileOutputStream(channelApkFile);
+        try {
+            if (prefixFile != null) {
+                RandomAccessFile prefix = new RandomAccessFile(prefixFile, "r");
+                try {
+                    new FileChannelDataSource(prefix.getChannel()).transferTo(
+                            0, mLayout.getApkSigningBlockOffset(), out.getChannel());
+                } finally {
+                    prefix.close();
+                }
+            }
+            transferChannelApk(out.getChannel(), apkSigningBlock, eocd, prefixFile == null);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Writes the channel APK with the provided APK Signing Block and End of Central Directory
+     * records into {@code target}, without the ZIP entries if {@code withEntries} is
+     * {@code false}. The regions of the base APK are transferred, not read.
+     */
+    private void transferChannelApk(WritableByteChannel target, ByteBuffer apkSigningBlock,
+                                    ByteBuffer eocd, boolean withEntries) throws IOException {
+        if (withEntries) {
+            // all data before apk signing block
+            mApk.transferTo(0, mLayout.getApkSigningBlockOffset(), target);
+        }
+        writeFully(target, apkSigningBlock);
+        // Central Directory, End of Central Directory
+        mApk.transferTo(mLayout.getCentralDirectoryOffset(),
+                mLayout.getCentralDirectorySizeBytes(), target);
+        writeFully(target, eocd);
+    }
+
+    /**
+     * Writes a channel APK as a copy of the base APK, a channel template, with the channel
+     * written over the template's channel slot.
+     */
+    private void patchTemplate(File channelApkFile, byte[] channel, String channelName)
+            throws IOException {
+        long slotOffset = mLayout.getChannelValueOffset();
+        int slotSize = mLayout.getChannelValueSize();
+        if ((slotOffset == -1) || !isEmptySlot(mApk.getByteBuffer(slotOffset, slotSize))) {
+            throw new IllegalStateException("Not a channel template, the channel slot must hold "
+                    + "an empty JSON object padded with spaces: " + mInputApkPath);
+        }
+        if (channel.length > slotSize) {
+            throw new IllegalArgumentException("Channel " + channelName + " needs "
+                    + channel.length + " bytes, the template slot holds " + slotSize);
+        }
+
+        ByteBuffer slot = ApkLayout.newChannelSlot(channel, slotSize);
+        Files.copy(new File(mInputApkPath).toPath(), channelApkFile.toPath(),
+                StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile out = new RandomAccessFile(channelApkFile, "rw");
+        try {
+            FileChannel outChannel = out.getChannel();
+            long position = slotOffset;
+            while (slot.hasRemaining()) {
+                position += outChannel.write(slot, position);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns whether the provided channel slot is that of a template: the placeholder followed
+     * by nothing but spaces.
+     */
+    private static boolean isEmptySlot(ByteBuffer slot) {
+        if (slot.remaining() < TEMPLATE_PLACEHOLDER.length) {
+            return false;
+        }
+        int position = slot.position();
+        for (int i = 0; i < TEMPLATE_PLACEHOLDER.length; i++) {
+            if (slot.get(position + i) != TEMPLATE_PLACEHOLDER[i]) {
+                return false;
+            }
+        }
+        for (int i = position + TEMPLATE_PLACEHOLDER.length; i < slot.limit(); i++) {
+            if (slot.get(i) != ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void verifyChannelApk(ApkSignatureVerifier verifier, File channelApkFile)
+            throws IOException {
+        boolean valid;
+        RandomAccessFile file = new RandomAccessFile(channelApkFile, "r");
+        try {
+            valid = verifier.verifyChannelApk(new FileChannelDataSource(file.getChannel()));
+        } catch (ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            valid = false;
+            Log.log("verify failed: " + e.getMessage());
+        } finally {
+            file.close();
+        }
+        if (!valid) {
+            channelApkFile.delete();
+            throw new IOException(
+                    "APK Signature Scheme v2 verification failed: " + channelApkFile.getPath());
+        }
+    }
+
+    /**
+     * Returns the verifier holding the digests of the verified base APK, verifying it on first
+     * use.
+     */
+    private synchronized ApkSignatureVerifier getVerifier() throws IOException {
+        if (mVerifier != null) {
+            return mVerifier;
+        }
+        // a base APK that failed is not digested again for every channel
+        if (mVerifierFailure != null) {
+            throw new IOException(mVerifierFailure.getMessage(), mVerifierFailure.getCause());
+        }
+        ApkSignatureVerifier verifier = new ApkSignatureVerifier();
+        try {
+            if (!verifier.verifyBase(mApk)) {
+                mVerifierFailure = new IOException(
+                        "Base APK fails APK Signature Scheme v2 verification: " + mInputApkPath);
+            }
+        } catch (ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            mVerifierFailure = new IOException("Base APK cannot be verified: " + mInputApkPath, e);
+        }
+        if (mVerifierFailure != null) {
+            throw mVerifierFailure;
+        }
+        mVerifier = verifier;
+        return verifier;
+    }
+
+    /**
+     * Returns the copy of the base APK's ZIP entries region in {@code outputApkDir}, writing it
+     * on first use. The file has a unique name, so writers sharing the output directory do not
+     * overwrite each other's copy, and is deleted by {@link #close()} or, if the writer is never
+     * closed, when the JVM exits.
+     */
+    private synchronized File getPrefixFile(String outputApkDir) throws IOException {
+        File prefixFile = mPrefixFiles.get(outputApkDir);
+        if (prefixFile != null) {
+            return prefixFile;
+        }
+
+        prefixFile = File.createTempFile("." + new File(mInputApkPath).getName() + "-",
+                ".prefix", new File(outputApkDir));
+        prefixFile.deleteOnExit();
+        try {
+            FileOutputStream out = new FileOutputStream(prefixFile);
+            try {
+                mApk.transferTo(0, mLayout.getApkSigningBlockOffset(), out.getChannel());
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            prefixFile.delete();
+            throw e;
+        }
+        mPrefixFiles.put(outputApkDir, prefixFile);
+        return prefixFile;
+    }
+
+    /**
+     * Writes the channel APKs for all {@code channels} into {@code outputApkDir} on a pool of
+     * {@code workerCount} threads sharing this writer's base APK. A channel that fails does not
+     * stop the others. A channel listed more than once is written once, its later entries fail.
+     *
+     * @return each channel that could not be written with its failure, in channel order. Empty
+     * if every channel was written.
+     */
+    public List<Pair<ChannelModel, Exception>> writeChannels(
+            String outputApkDir, List<ChannelModel> channels, int workerCount) {
+        return writeChannels(outputApkDir, channels, workerCount, null);
+    }
+
+    /**
+     * Writes the channel APKs for all {@code channels} into {@code outputApkDir}, see
+     * {@link #writeChannels(String, List, int)}, recording each channel in {@code manifest} if
+     * not {@code null}. Channels whose output the manifest holds as valid are skipped, so a rerun
+     * of an interrupted batch only writes the missing channel APKs.
+     *
+     * @return each channel that could not be written with its failure, in channel order. Empty
+     * if every channel was written or skipped.
+     */
+    public List<Pair<ChannelModel, Exception>> writeChannels(
+            final String outputApkDir, List<ChannelModel> channels, int workerCount,
+            final ChannelManifest manifest) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("workerCount: " + workerCount);
+        }
+
+        // in list order, a channel listed twice has a null future for its later entries: both
+        // would write the same file at once
+        List<Future<File>> futures = new ArrayList<>(channels.size());
+        Set<ByteBuffer> payloads = new HashSet<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        try {
+            for (final ChannelModel channel : channels) {
+                if (!payloads.add(ByteBuffer.wrap(channel.getBytes()))) {
+                    futures.add(null);
+                    continue;
+                }
+                futures.add(executor.submit(new Callable<File>() {
+                    @Override
+                    public File call() throws Exception {
+                        if (manifest == null) {
+                            return writeChannel(outputApkDir, channel);
+                        }
+                        return writeChannel(outputApkDir, channel, manifest);
+                    }
+                }));
+            }
+
+            List<Pair<ChannelModel, Exception>> failures = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                Future<File> future = futures.get(i);
+                if (future == null) {
+                    failures.add(Pair.of(channels.get(i),
+                            (Exception) new IllegalArgumentException("duplicate channel")));
+                    continue;
+                }
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    failures.add(Pair.of(channels.get(i), (Exception) cause));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    failures.add(Pair.of(channels.get(i), (Exception) e));
+                }
+            }
+            return failures;
+        } finally {
+            // Not shutdownNow: interrupting a worker blocked in FileChannel I/O closes the
+            // channel of the base APK shared by all workers.
+            executor.shutdown();
+        }
+    }
+
+    private File writeChannel(String outputApkDir, ChannelModel channelModel,
+                              ChannelManifest manifest) throws IOException {
+        byte[] channel = channelModel.getBytes();
+        // the directory the channel APK would be written to, outputApkDir is a name prefix
+        File outputDir = getChannelApkFile(outputApkDir, channelModel).getAbsoluteFile()
+                .getParentFile();
+        File output = manifest.findValidOutput(outputDir, channel);
+        if (output != null) {
+            Log.log("skip: " + output.getPath());
+            return output;
+        }
+        try {
+            output = writeChannel(outputApkDir, channelModel);
+        } catch (IOException | RuntimeException e) {
+            manifest.recordFailed(channel, e);
+            throw e;
+        }
+        manifest.recordDone(channel, output);
+        return output;
+    }
+
+    /**
+     * Returns the default number of worker threads for {@link #writeChannels}. Most of the work
+     * is file to file copying done by the operating system, so a single disk is saturated by a
+     * few writers long before all cores are busy.
+     */
+    public static int getDefaultWorkerCount() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    }
+
+    /**
+     * Writes the channel APK carrying {@code channelModel} into the provided channel, for
+     * example a socket or a pipe. As for files, the unchanged regions of the base APK are
+     * transferred by the operating system, see {@link FileChannel#transferTo}, which only falls
+     * back to copying through user space for channels it cannot send to directly.
+     *
+     * @return the number of bytes written, {@link ApkLayout#getChannelApkSize(int)}
+     */
+    public long writeChannel(WritableByteChannel target, ChannelModel channelModel)
+            throws IOException {
+        byte[] channel = channelModel.getBytes();
+        ByteBuffer apkSigningBlock = mLayout.newApkSigningBlock(channel);
+        ByteBuffer eocd = mLayout.newEndOfCentralDirectory(
+                mLayout.getChannelCentralDirectoryOffset(channel.length));
+        transferChannelApk(target, apkSigningBlock, eocd, true);
+        return mLayout.getChannelApkSize(channel.length);
+    }
+
+    /**
+     * Returns the channel APK carrying {@code channelModel} as a virtual file: the unchanged
+     * regions of the base APK linked with the APK Signing Block and End of Central Directory
+     * built for the channel, see {@link ChainedDataSource}. Any range of the channel APK is read
+     * in time proportional to its size, and nothing but these two records is kept per channel.
+     * <p>
+     * <p>The data source reads the base APK of this writer, it must not be used once the writer
+     * is closed.
+     */
+    public ChainedDataSource newChannelApkDataSource(ChannelModel channelModel) {
+        byte[] channel = channelModel.getBytes();
+        ByteBuffer apkSigningBlock = mLayout.newApkSigningBlock(channel);
+        ByteBuffer eocd = mLayout.newEndOfCentralDirectory(
+                mLayout.getChannelCentralDirectoryOffset(channel.length));
+        return DataSources.link(
+                // all data before apk signing block
+                mApk.slice(0, mLayout.getApkSigningBlockOffset()),
+                DataSources.asDataSource(apkSigningBlock),
+                // Central Directory, End of Central Directory
+                mApk.slice(mLayout.getCentralDirectoryOffset(),
+                        mLayout.getCentralDirectorySizeBytes()),
+                DataSources.asDataSource(eocd));
+    }
+
+    /**
+     * Streams the channel APK for {@code channelName} into the provided sink. The unchanged
+     * regions of the base APK are fed in bounded chunks, so heap use does not depend on the size
+     * of the APK.
+     * <p>
+     * <p>Chunks are read and consumed on the calling thread in turn. Wrap a slow sink in an
+     * {@link com.branch.v2.read.util.AsyncDataSink} to read the next chunk while the previous one
+     * is written.
+     */
+    public void writeChannel(DataSink sink, String channelName) throws IOException {
+        writeChannel(sink, new ChannelModel(channelName));
+    }
+
+    /**
+     * Streams the channel APK carrying {@code channelModel} into the provided sink, see
+     * {@link #writeChannel(DataSink, String)}.
+     */
+    public void writeChannel(DataSink sink, ChannelModel channelModel) throws IOException {
+        byte[] channel = channelModel.getBytes();
+
+        ByteBuffer apkSigningBlock = mLayout.newApkSigningBlock(channel);
+        ByteBuffer eocd = mLayout.newEndOfCentralDirectory(
+                mLayout.getChannelCentralDirectoryOffset(channel.length));
+
+        // all data before apk signing block
+        mApk.feed(0, mLayout.getApkSigningBlockOffset(), sink);
+        sink.consume(apkSigningBlock);
+        // Central Directory, End of Central Directory
+        mApk.feed(mLayout.getCentralDirectoryOffset(), mLayout.getCentralDirectorySizeBytes(), sink);
+        sink.consume(eocd);
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            channel.write(buf);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            for (File prefixFile : mPrefixFiles.values()) {
+                prefixFile.delete();
+            }
+            mPrefixFiles.clear();
+        }
+        mApk.close();
+    }
+}
@@ -0,0 +1,292 @@
+package com.branch.v2;
+
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.ByteBufferPool;
+import com.branch.v2.read.util.FileChannelDataSource;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Job manifest of a batch of channel APKs, so an interrupted batch resumes where it stopped
+ * instead of starting over.
+ * <p>
+ * <p>The manifest is an append-only text file, one tab separated record per line. The first
+ * record holds the SHA-256 and size of the base APK, each following record the status of one
+ * channel, keyed by its channel payload:
+ * <pre>
+ * base    &lt;sha256&gt;  &lt;size&gt;
+ * done    &lt;size&gt;    &lt;output path&gt;  &lt;channel payload&gt;
+ * failed  -1        -              &lt;channel payload&gt;  &lt;message&gt;
+ * </pre>
+ * Each record is flushed once written, so a killed process loses at most the channels being
+ * written. The last record of a channel wins.
+ * <p>
+ * <p>A channel is skipped on a rerun when its output recorded as done is in the requested output
+ * directory, still exists, still has the recorded size and still carries the channel payload.
+ * Missing, truncated or rewritten outputs, and outputs of a run into another directory, are
+ * written again. A manifest of another base APK is discarded: every channel is
+ * written again.
+ * <p>
+ * <p>Instances are safe for use by multiple threads.
+ */
+public class ChannelManifest implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String RECORD_BASE = "base";
+    private static final String RECORD_DONE = "done";
+    private static final String RECORD_FAILED = "failed";
+
+    private final File mManifestFile;
+    private final Map<String, Record> mRecords;
+    private final Writer mWriter;
+    private int mSkippedCount;
+
+    private ChannelManifest(File manifestFile, Map<String, Record> records, Writer writer) {
+        mManifestFile = manifestFile;
+        mRecords = records;
+        mWriter = writer;
+    }
+
+    /**
+     * Opens the manifest of a batch from {@code baseApkFile}, creating it if it does not exist
+     * and starting it over if it belongs to another base APK.
+     */
+    public static ChannelManifest open(File manifestFile, File baseApkFile) throws IOException {
+        String baseRecord = RECORD_BASE + '\t' + hashFile(baseApkFile) + '\t'
+                + baseApkFile.length();
+        Map<String, Record> records = new HashMap<>();
+        boolean sameBase = false;
+        if (manifestFile.exists()) {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(manifestFile), UTF_8));
+            try {
+                sameBase = baseRecord.equals(reader.readLine());
+                String line;
+                while (sameBase && (line = reader.readLine()) != null) {
+                    Record record = Record.parse(line);
+                    // a line cut short by a killed process is ignored
+                    if (record != null) {
+                        records.put(record.mChannel, record);
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            if (!sameBase) {
+                Log.log("manifest of another base apk, starting over: " + manifestFile.getPath());
+            }
+        }
+
+        boolean endsWithNewline = !sameBase || endsWithNewline(manifestFile);
+        Writer writer = new OutputStreamWriter(
+                new FileOutputStream(manifestFile, sameBase), UTF_8);
+        if (!sameBase) {
+            writer.write(baseRecord + '\n');
+            writer.flush();
+        } else {
+            if (!endsWithNewline) {
+                // terminate the line cut short, so it does not run into the next record
+                writer.write('\n');
+                writer.flush();
+            }
+            Log.log("manifest: " + manifestFile.getPath() + " records: " + records.size());
+        }
+        return new ChannelManifest(manifestFile, records, writer);
+    }
+
+    public File getManifestFile() {
+        return mManifestFile;
+    }
+
+    /**
+     * Returns the output recorded as done for the provided channel payload if it is in
+     * {@code outputApkDir} and still valid, {@code null} if the channel has to be written.
+     */
+    public File findValidOutput(File outputApkDir, byte[] channel) throws IOException {
+        Record record;
+        synchronized (this) {
+            record = mRecords.get(new String(channel, UTF_8));
+        }
+        if (record == null || !RECORD_DONE.equals(record.mStatus)) {
+            return null;
+        }
+        File output = new File(record.mOutputPath);
+        File outputDir = output.getParentFile();
+        if (outputDir == null
+                || !outputDir.getCanonicalFile().equals(outputApkDir.getCanonicalFile())) {
+            return null;
+        }
+        if (output.length() != record.mSize || !hasChannel(output, channel)) {
+            return null;
+        }
+        synchronized (this) {
+            mSkippedCount++;
+        }
+        return output;
+    }
+
+    /**
+     * Returns the number of channels {@link #findValidOutput(File, byte[])} found a valid output for.
+     */
+    public synchronized int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    public synchronized void recordDone(byte[] channel, File output) throws IOException {
+        append(new Record(RECORD_DONE, output.length(), output.getAbsolutePath(),
+                new String(channel, UTF_8), null));
+    }
+
+    public synchronized void recordFailed(byte[] channel, Exception e) throws IOException {
+        String message = String.valueOf(e).replace('\t', ' ').replace('\n', ' ');
+        append(new Record(RECORD_FAILED, -1, "-", new String(channel, UTF_8), message));
+    }
+
+    private void append(Record record) throws IOException {
+        mRecords.put(record.mChannel, record);
+        mWriter.write(record.toString());
+        mWriter.write('\n');
+        mWriter.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mWriter.close();
+    }
+
+    /**
+     * Returns whether the channel value of {@code apkFile} is {@code channel}, followed by
+     * nothing but the padding of a channel slot.
+     */
+    private static boolean hasChannel(File apkFile, byte[] channel) {
+        try {
+            RandomAccessFile file = new RandomAccessFile(apkFile, "r");
+            try {
+                FileChannelDataSource apk = new FileChannelDataSource(file.getChannel());
+                ApkLayout layout = ApkLayout.parse(apk);
+                int valueSize = layout.getChannelValueSize();
+                if (layout.getChannelValueOffset() == -1 || valueSize < channel.length) {
+                    return false;
+                }
+                ByteBuffer value = apk.getByteBuffer(layout.getChannelValueOffset(), valueSize);
+                for (int i = 0; i < valueSize; i++) {
+                    byte expected = i < channel.length ? channel[i] : (byte) ' ';
+                    if (value.get(i) != expected) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                file.close();
+            }
+        } catch (IOException | ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            return false;
+        }
+    }
+
+    private static boolean endsWithNewline(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            long length = raf.length();
+            if (length == 0) {
+                return true;
+            }
+            raf.seek(length - 1);
+            return raf.read() == '\n';
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the SHA-256 of the provided file as lowercase hex.
+     */
+    static String hashFile(File file) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        FileInputStream in = new FileInputStream(file);
+        ByteBuffer buf = ByteBufferPool.acquire(ByteBufferPool.MAX_POOLED_SIZE);
+        try {
+            FileChannel channel = in.getChannel();
+            while (channel.read(buf) != -1) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+        } finally {
+            ByteBufferPool.release(buf);
+            in.close();
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(String.format("%02x", b & 0xff));
+        }
+        return hex.toString();
+    }
+
+    private static class Record {
+        private final String mStatus;
+        private final long mSize;
+        private final String mOutputPath;
+        private final String mChannel;
+        private final String mMessage;
+
+        private Record(String status, long size, String outputPath, String channel,
+                       String message) {
+            mStatus = status;
+            mSize = size;
+            mOutputPath = outputPath;
+            mChannel = channel;
+            mMessage = message;
+        }
+
+        static Record parse(String line) {
+            String[] fields = line.split("\t");
+            if (fields.length < 4) {
+                return null;
+            }
+            if (RECORD_DONE.equals(fields[0])) {
+                try {
+                    return new Record(RECORD_DONE, Long.parseLong(fields[1]), fields[2],
+                            fields[3], null);
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+            }
+            if (RECORD_FAILED.equals(fields[0])) {
+                return new Record(RECORD_FAILED, -1, "-", fields[3],
+                        fields.length > 4 ? fields[4] : "");
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            String record = mStatus + '\t' + mSize + '\t' + mOutputPath + '\t' + mChannel;
+            return mMessage == null ? record : record + '\t' + mMessage;
+        }
+    }
+}
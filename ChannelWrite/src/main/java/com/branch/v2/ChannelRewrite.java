@@ -0,0 +1,91 @@
+package com.branch.v2;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.DataSource;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Replaces the channel of an APK in place, without copying it.
+ * <p>
+ * <p>If the APK already has a channel pair and the new payload fits its value, the value is
+ * overwritten and padded with JSON whitespace: a positional write of a few bytes, the file size
+ * does not change. Otherwise the APK Signing Block is rebuilt with the channel pair, padded to a
+ * multiple of {@link #CHANNEL_SLOT_ALIGNMENT} bytes so later rewrites fit in place, and only the
+ * Central Directory and the records following it are moved. The ZIP entries are never touched.
+ * <p>
+ * <p>The APK is modified directly: an interrupted move of the Central Directory leaves it
+ * corrupt, keep a copy where that matters.
+ */
+public class ChannelRewrite {
+
+    /**
+     * Slot size granularity of channel values written by a rewrite that had to grow the APK
+     * Signing Block.
+     */
+    public static final int CHANNEL_SLOT_ALIGNMENT = 64;
+
+    /**
+     * Replaces the channel of the provided APK.
+     *
+     * @return {@code true} if the channel was patched in place, {@code false} if the Central
+     * Directory had to be moved
+     */
+    public static boolean rewriteChannel(String apkPath, ChannelModel channelModel)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        RandomAccessFile file = new RandomAccessFile(apkPath, "rw");
+        try {
+            FileChannel channel = file.getChannel();
+            DataSource apk = DataSources.asDataSource(channel);
+            ApkLayout layout = ApkLayout.parse(apk);
+            byte[] value = channelModel.getBytes();
+
+            if ((layout.getChannelValueOffset() != -1)
+                    && (value.length <= layout.getChannelValueSize())) {
+                ByteBuffer slot = ApkLayout.newChannelSlot(value, layout.getChannelValueSize());
+                writeFully(channel, slot, layout.getChannelValueOffset());
+                Log.log("rewrite channel in place: " + apkPath);
+                return true;
+            }
+
+            int slotSize = (value.length + CHANNEL_SLOT_ALIGNMENT - 1)
+                    / CHANNEL_SLOT_ALIGNMENT * CHANNEL_SLOT_ALIGNMENT;
+            byte[] slot = ApkLayout.newChannelSlot(value, slotSize).array();
+            long centralDirectorySize = layout.getCentralDirectorySizeBytes();
+            if (centralDirectorySize > Integer.MAX_VALUE) {
+                throw new ZipFormatException(
+                        "ZIP Central Directory too large: " + centralDirectorySize);
+            }
+            // read the Central Directory before the new APK Signing Block overwrites it
+            ByteBuffer centralDirectory = ByteBuffer.allocate((int) centralDirectorySize);
+            apk.copyTo(layout.getCentralDirectoryOffset(), (int) centralDirectorySize,
+                    centralDirectory);
+            centralDirectory.flip();
+
+            long newCentralDirectoryOffset = layout.getChannelCentralDirectoryOffset(slot.length);
+            ByteBuffer eocd = layout.newEndOfCentralDirectory(newCentralDirectoryOffset);
+            writeFully(channel, layout.newApkSigningBlock(slot), layout.getApkSigningBlockOffset());
+            writeFully(channel, centralDirectory, newCentralDirectoryOffset);
+            writeFully(channel, eocd, newCentralDirectoryOffset + centralDirectorySize);
+            channel.truncate(layout.getChannelApkSize(slot.length));
+            Log.log("rewrite channel, central directory moved: " + apkPath);
+            return false;
+        } finally {
+            file.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buf, long position)
+            throws IOException {
+        while (buf.hasRemaining()) {
+            position += channel.write(buf, position);
+        }
+    }
+}
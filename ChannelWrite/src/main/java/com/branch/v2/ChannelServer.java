@@ -0,0 +1,492 @@
+package com.branch.v2;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.Log;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running channel server: keeps the parsed layouts of the base APKs it was asked for in
+ * memory and writes channel APKs on request, so each request only costs the channel's own I/O,
+ * not a JVM start and a parse of the base APK.
+ * <p>
+ * <p>Requests are lines of tab separated fields, read from stdin or from connections to a local
+ * port. Each request gets one response line, {@code ok} or {@code error} followed by tab
+ * separated fields:
+ * <pre>
+ * write   &lt;apk&gt;  &lt;output dir&gt;  &lt;channel&gt;  ok  &lt;output path&gt;  &lt;size&gt;
+ * stream  &lt;apk&gt;  &lt;channel&gt;                 ok  &lt;size&gt;, then the channel APK's bytes
+ * range   &lt;apk&gt;  &lt;channel&gt;  &lt;offset&gt;  &lt;size&gt;
+ *                                            ok  &lt;size&gt;, then this range of its bytes
+ * stats                                      ok  &lt;latency histogram&gt;
+ * quit                                       closes the connection, ends stdin mode
+ * </pre>
+ * {@code <channel>} is a line of the channel list, see {@link ChannelWrite#parseChannelLine}.
+ * <p>
+ * <p>At most {@code maxConcurrentRequests} requests run at once, the others wait. A
+ * {@code stream} or {@code range} request counts until its response header is written: the
+ * transfer that follows runs at the pace of the client, and a slow client must not hold up the
+ * other requests. {@code stats} never waits. Requests on one connection run in order.
+ * Connections beyond {@link #MAX_CONNECTIONS} are refused with {@code error busy}, which also
+ * bounds the number of transfers.
+ * <p>
+ * <p>The server runs with the rights of its user, for every local process that can reach its
+ * port or stdin: {@code stream} and {@code range} read any APK the user can read, {@code write}
+ * creates files in any directory the user can write to unless an output root is set, see
+ * {@link #setOutputRoot(File)}. Channel names holding a path separator are rejected.
+ * <p>
+ * <p>A base APK is parsed again when its size or modification time changes. At most
+ * {@link #MAX_CACHED_APKS} base APKs are kept, the least recently used is closed once its
+ * requests are done.
+ */
+public class ChannelServer implements Closeable {
+
+    public static final int MAX_CONNECTIONS = 64;
+    public static final int MAX_CACHED_APKS = 16;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final Semaphore mRequestPermits;
+    private final LatencyHistogram mLatencyHistogram = new LatencyHistogram();
+    private final Map<String, WriterEntry> mWriters =
+            new LinkedHashMap<String, WriterEntry>(16, 0.75f, true);
+
+    private volatile File mOutputRoot;
+    private volatile ServerSocketChannel mServerSocket;
+    private volatile boolean mClosed;
+
+    public ChannelServer(int maxConcurrentRequests) {
+        if (maxConcurrentRequests < 1) {
+            throw new IllegalArgumentException("maxConcurrentRequests: " + maxConcurrentRequests);
+        }
+        mRequestPermits = new Semaphore(maxConcurrentRequests, true);
+    }
+
+    public LatencyHistogram getLatencyHistogram() {
+        return mLatencyHistogram;
+    }
+
+    /**
+     * Restricts the output dirs of {@code write} requests to {@code outputRoot} and the dirs
+     * below it, relative output dirs are resolved against it. {@code null}, the default, allows
+     * any output dir.
+     */
+    public void setOutputRoot(File outputRoot) throws IOException {
+        mOutputRoot = (outputRoot != null) ? outputRoot.getCanonicalFile() : null;
+    }
+
+    /**
+     * Accepts connections on {@code port} of the loopback interface until {@link #close()}, each
+     * served on its own thread by {@link #serve(InputStream, OutputStream)}. Port 0 picks a free
+     * port, logged once listening. Streamed channel APKs are sent by the operating system, see
+     * {@link ChannelStreamer#stream(ChannelModel, WritableByteChannel)}.
+     */
+    public void listen(int port) throws IOException {
+        ServerSocketChannel serverSocket = ServerSocketChannel.open();
+        mServerSocket = serverSocket;
+        ExecutorService executor = new ThreadPoolExecutor(0, MAX_CONNECTIONS,
+                60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+        try {
+            serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 50);
+            Log.log("listening on " + serverSocket.socket().getInetAddress().getHostAddress()
+                    + ":" + serverSocket.socket().getLocalPort());
+            while (!mClosed) {
+                final SocketChannel socket;
+                try {
+                    socket = serverSocket.accept();
+                } catch (IOException e) {
+                    if (mClosed) {
+                        break;
+                    }
+                    throw e;
+                }
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serveConnection(socket);
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    refuseConnection(socket);
+                }
+            }
+        } finally {
+            executor.shutdown();
+            serverSocket.close();
+        }
+    }
+
+    /**
+     * Serves the requests read from {@code in} until {@code quit} or the end of the input.
+     * Streamed channel APKs are sent by the operating system if {@code out} is a
+     * {@link FileOutputStream}, of stdout for example.
+     */
+    public void serve(InputStream in, OutputStream out) throws IOException {
+        WritableByteChannel outChannel = null;
+        if (out instanceof FileOutputStream) {
+            outChannel = ((FileOutputStream) out).getChannel();
+        }
+        serve(in, out, outChannel);
+    }
+
+    /**
+     * @param outChannel the channel of {@code out}, {@code null} to stream through {@code out}
+     */
+    private void serve(InputStream in, OutputStream out, WritableByteChannel outChannel)
+            throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, UTF_8));
+        OutputStream response = new BufferedOutputStream(out);
+        String line;
+        while (!mClosed && (line = reader.readLine()) != null) {
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (line.equals("quit")) {
+                break;
+            }
+            handleRequest(line, response, outChannel);
+            response.flush();
+        }
+    }
+
+    private void serveConnection(SocketChannel socket) {
+        try {
+            try {
+                Socket s = socket.socket();
+                serve(s.getInputStream(), s.getOutputStream(), socket);
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            Log.log("connection failed: " + e);
+        }
+    }
+
+    private static void refuseConnection(SocketChannel socket) {
+        try {
+            try {
+                socket.socket().getOutputStream().write("error\tbusy\n".getBytes(UTF_8));
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // the client is gone already
+        }
+    }
+
+    private void handleRequest(String line, OutputStream response,
+                               WritableByteChannel responseChannel) throws IOException {
+        String[] fields = line.split("\t", -1);
+        if (fields[0].equals("stats")) {
+            writeLine(response, "ok", mLatencyHistogram.toString());
+            return;
+        }
+        long startTime = System.nanoTime();
+        RequestPermit permit = new RequestPermit();
+        try {
+            permit.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            writeLine(response, "error", "interrupted");
+            return;
+        }
+        try {
+            switch (fields[0]) {
+                case "write":
+                    checkFieldCount(fields, 4);
+                    write(fields[1], fields[2], fields[3], response);
+                    break;
+                case "stream":
+                    checkFieldCount(fields, 3);
+                    stream(fields[1], fields[2], 0, -1, response, responseChannel, permit);
+                    break;
+                case "range":
+                    checkFieldCount(fields, 5);
+                    stream(fields[1], fields[2], Long.parseLong(fields[3]),
+                            Long.parseLong(fields[4]), response, responseChannel, permit);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown request: " + fields[0]);
+            }
+        } catch (RuntimeException | ZipFormatException | ApkUtils.SignatureNotFoundException e) {
+            writeLine(response, "error", String.valueOf(e.getMessage()));
+        } catch (IOException e) {
+            // a failed write of the stream leaves the response unusable, the connection ends
+            if (e instanceof ResponseException) {
+                throw e;
+            }
+            writeLine(response, "error", String.valueOf(e.getMessage()));
+        } finally {
+            permit.release();
+        }
+        mLatencyHistogram.record((System.nanoTime() - startTime) / 1000);
+    }
+
+    private void write(String apkPath, String outputDir, String channelLine,
+                       OutputStream response)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        ChannelModel channelModel = ChannelWrite.parseChannelLine(channelLine);
+        outputDir = checkOutputDir(outputDir).getPath();
+        if (!outputDir.endsWith(File.separator)) {
+            outputDir += File.separator;
+        }
+        WriterEntry entry = acquireWriter(apkPath);
+        File output;
+        try {
+            output = entry.mWriter.writeChannel(outputDir, channelModel);
+        } finally {
+            releaseWriter(entry);
+        }
+        writeLine(response, "ok", output.getPath(), String.valueOf(output.length()));
+    }
+
+    /**
+     * Returns the provided output dir, resolved against the output root if one is set.
+     *
+     * @throws IllegalArgumentException if the output dir is not within the output root
+     */
+    private File checkOutputDir(String outputDir) throws IOException {
+        File outputRoot = mOutputRoot;
+        if (outputRoot == null) {
+            return new File(outputDir);
+        }
+        File dir = new File(outputDir);
+        if (!dir.isAbsolute()) {
+            dir = new File(outputRoot, outputDir);
+        }
+        dir = dir.getCanonicalFile();
+        for (File parent = dir; parent != null; parent = parent.getParentFile()) {
+            if (parent.equals(outputRoot)) {
+                return dir;
+            }
+        }
+        throw new IllegalArgumentException(
+                "output dir not within " + outputRoot + ": " + outputDir);
+    }
+
+    /**
+     * Streams {@code size} bytes of the channel APK starting at {@code offset}, all of it if
+     * {@code size} is -1. The request's permit is released once the header is written.
+     */
+    private void stream(String apkPath, String channelLine, long offset, long size,
+                        OutputStream response, WritableByteChannel responseChannel,
+                        RequestPermit permit)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        ChannelModel channelModel = ChannelWrite.parseChannelLine(channelLine);
+        WriterEntry entry = acquireWriter(apkPath);
+        try {
+            ChannelStreamer streamer = new ChannelStreamer(entry.mWriter);
+            long contentLength = streamer.getContentLength(channelModel);
+            if (size == -1) {
+                size = contentLength - offset;
+            }
+            if (offset < 0 || size < 0 || offset > contentLength - size) {
+                throw new IllegalArgumentException("range " + offset + "+" + size
+                        + " not within " + contentLength + " bytes");
+            }
+            writeLine(response, "ok", String.valueOf(size));
+            permit.release();
+            try {
+                if (responseChannel != null) {
+                    // the header goes first, the channel bypasses the buffer
+                    response.flush();
+                    streamer.stream(channelModel, offset, size, responseChannel);
+                } else {
+                    streamer.stream(channelModel, offset, size, response);
+                }
+            } catch (IOException e) {
+                throw new ResponseException(e);
+            }
+        } finally {
+            releaseWriter(entry);
+        }
+    }
+
+    private static void checkFieldCount(String[] fields, int count) {
+        if (fields.length != count) {
+            throw new IllegalArgumentException(
+                    fields[0] + " needs " + (count - 1) + " tab separated arguments");
+        }
+    }
+
+    private static void writeLine(OutputStream out, String... fields) throws IOException {
+        StringBuilder line = new StringBuilder();
+        for (String field : fields) {
+            if (line.length() > 0) {
+                line.append('\t');
+            }
+            line.append(field.replace('\t', ' ').replace('\n', ' '));
+        }
+        line.append('\n');
+        out.write(line.toString().getBytes(UTF_8));
+    }
+
+    /**
+     * Returns the writer of the provided base APK, parsing it if it is not cached or changed
+     * since. Each acquired writer must be released.
+     * <p>
+     * <p>The APK is parsed outside of the lock, so a large base APK does not hold up the requests
+     * for the others. Concurrent misses for the same APK parse it twice, the first writer
+     * published is kept.
+     */
+    private WriterEntry acquireWriter(String apkPath)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        File apkFile = new File(apkPath).getCanonicalFile();
+        String key = apkFile.getPath();
+        // read before the parse, so a file changing during the parse is parsed again next time
+        long lastModified = apkFile.lastModified();
+        long length = apkFile.length();
+        synchronized (mWriters) {
+            WriterEntry entry = mWriters.get(key);
+            if (entry != null && entry.isOf(lastModified, length)) {
+                entry.mUsers++;
+                return entry;
+            }
+            if (mClosed) {
+                throw new IOException("Server closed");
+            }
+        }
+
+        ChannelBatchWriter writer = new ChannelBatchWriter(key);
+        synchronized (mWriters) {
+            if (mClosed) {
+                writer.close();
+                throw new IOException("Server closed");
+            }
+            WriterEntry entry = mWriters.get(key);
+            if (entry != null && entry.isOf(lastModified, length)) {
+                writer.close();
+            } else {
+                if (entry != null) {
+                    Log.log("base apk changed: " + key);
+                    mWriters.remove(key);
+                    retire(entry);
+                }
+                entry = new WriterEntry(writer, lastModified, length);
+                mWriters.put(key, entry);
+                Iterator<WriterEntry> eldest = mWriters.values().iterator();
+                while (mWriters.size() > MAX_CACHED_APKS) {
+                    WriterEntry evicted = eldest.next();
+                    eldest.remove();
+                    retire(evicted);
+                }
+            }
+            entry.mUsers++;
+            return entry;
+        }
+    }
+
+    private void releaseWriter(WriterEntry entry) {
+        synchronized (mWriters) {
+            entry.mUsers--;
+            if (entry.mRetired && entry.mUsers == 0) {
+                entry.mWriter.close();
+            }
+        }
+    }
+
+    /**
+     * Closes the writer once its last request is done. Must hold the lock on
+     * {@link #mWriters}.
+     */
+    private static void retire(WriterEntry entry) {
+        entry.mRetired = true;
+        if (entry.mUsers == 0) {
+            entry.mWriter.close();
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes the cached base APKs once their requests are done.
+     */
+    @Override
+    public void close() throws IOException {
+        mClosed = true;
+        ServerSocketChannel serverSocket = mServerSocket;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+        synchronized (mWriters) {
+            for (WriterEntry entry : mWriters.values()) {
+                retire(entry);
+            }
+            mWriters.clear();
+        }
+    }
+
+    /**
+     * A permit of {@link #mRequestPermits}, which may be released before the request is done.
+     */
+    private class RequestPermit {
+        private boolean mHeld;
+
+        void acquire() throws InterruptedException {
+            mRequestPermits.acquire();
+            mHeld = true;
+        }
+
+        void release() {
+            if (mHeld) {
+                mHeld = false;
+                mRequestPermits.release();
+            }
+        }
+    }
+
+    private static class WriterEntry {
+        private final ChannelBatchWriter mWriter;
+        private final long mLastModified;
+        private final long mLength;
+        private int mUsers;
+        private boolean mRetired;
+
+        private WriterEntry(ChannelBatchWriter writer, long lastModified, long length) {
+            mWriter = writer;
+            mLastModified = lastModified;
+            mLength = length;
+        }
+
+        private boolean isOf(long lastModified, long length) {
+            return mLastModified == lastModified && mLength == length;
+        }
+    }
+
+    /**
+     * Failure while streaming a response: the client has already been told the size, so no
+     * error line can follow.
+     */
+    private static class ResponseException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        ResponseException(IOException cause) {
+            super(cause);
+        }
+    }
+}
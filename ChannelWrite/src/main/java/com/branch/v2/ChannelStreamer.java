@@ -0,0 +1,182 @@
+package com.branch.v2;
+
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.AsyncDataSink;
+import com.branch.v2.read.util.ChainedDataSource;
+import com.branch.v2.read.util.DataSinks;
+import com.branch.v2.read.zip.ZipFormatException;
+
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Streams channel APKs on the fly, for example as the response of a download server, so no
+ * channel APK has to be generated and stored in advance.
+ * <p>
+ * <p>The size of a channel APK is known before a byte is written, see
+ * {@link #getContentLength(ChannelModel)}, for a {@code Content-Length} header. The stream is the
+ * base APK's ZIP entries, the rebuilt APK Signing Block, the Central Directory and the patched
+ * End of Central Directory. The regions of the base APK are transferred by the operating system
+ * when the target is a channel or a {@link FileOutputStream}. Any other stream, a pipe or a
+ * servlet response for example, is fed in bounded chunks by an {@link AsyncDataSink}, so the next
+ * chunk of the base APK is read while the stream blocks on the previous one. Either way memory
+ * use does not depend on the size of the APK.
+ * <p>
+ * <p>Any byte range of a channel APK can be streamed too, to answer the {@code Range} requests of
+ * resumed downloads, in time proportional to the size of the range. See
+ * {@link #getDataSource(ChannelModel)} for random access to a channel APK.
+ * <p>
+ * <p>Instances are safe for use by multiple threads, one parsed base APK serves any number of
+ * concurrent streams.
+ */
+public class ChannelStreamer implements Closeable {
+
+    private final ChannelBatchWriter mWriter;
+    private final boolean mOwnsWriter;
+
+    /**
+     * Constructs a new {@code ChannelStreamer} of the provided base APK, which is parsed once.
+     */
+    public ChannelStreamer(String baseApkPath)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        mWriter = new ChannelBatchWriter(baseApkPath);
+        mOwnsWriter = true;
+    }
+
+    /**
+     * Constructs a new {@code ChannelStreamer} sharing the base APK of {@code writer}. Closing
+     * the streamer does not close the writer.
+     */
+    public ChannelStreamer(ChannelBatchWriter writer) {
+        mWriter = writer;
+        mOwnsWriter = false;
+    }
+
+    /**
+     * Streams the channel APK carrying {@code channel} of {@code baseApkPath} into {@code out}.
+     * Use an instance to stream more than one channel APK of the same base APK, so it is parsed
+     * only once.
+     *
+     * @return the number of bytes written
+     */
+    public static long stream(String baseApkPath, ChannelModel channel, OutputStream out)
+            throws IOException, ZipFormatException, ApkUtils.SignatureNotFoundException {
+        ChannelStreamer streamer = new ChannelStreamer(baseApkPath);
+        try {
+            return streamer.stream(channel, out);
+        } finally {
+            streamer.close();
+        }
+    }
+
+    /**
+     * Returns the exact size (in bytes) of the channel APK carrying {@code channel}.
+     */
+    public long getContentLength(ChannelModel channel) {
+        return mWriter.getLayout().getChannelApkSize(channel.getBytes().length);
+    }
+
+    /**
+     * Returns the channel APK carrying {@code channel} as a virtual file, see
+     * {@link ChannelBatchWriter#newChannelApkDataSource(ChannelModel)}. It must not be used once
+     * this streamer is closed.
+     */
+    public ChainedDataSource getDataSource(ChannelModel channel) {
+        return mWriter.newChannelApkDataSource(channel);
+    }
+
+    /**
+     * Streams the channel APK carrying {@code channel} into {@code out}. The stream is neither
+     * flushed nor closed.
+     *
+     * @return the number of bytes written, {@link #getContentLength(ChannelModel)}
+     */
+    public long stream(ChannelModel channel, OutputStream out) throws IOException {
+        if (out instanceof FileOutputStream) {
+            // a socket's FileOutputStream has no channel
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            if (target != null) {
+                return mWriter.writeChannel(target, channel);
+            }
+        }
+        AsyncDataSink sink = DataSinks.newAsyncDataSink(DataSinks.asDataSink(out));
+        try {
+            mWriter.writeChannel(sink, channel);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(sink);
+            throw e;
+        }
+        sink.close();
+        return getContentLength(channel);
+    }
+
+    /**
+     * Streams the channel APK carrying {@code channel} into {@code out}, a socket channel for
+     * example.
+     *
+     * @return the number of bytes written, {@link #getContentLength(ChannelModel)}
+     */
+    public long stream(ChannelModel channel, WritableByteChannel out) throws IOException {
+        return mWriter.writeChannel(out, channel);
+    }
+
+    /**
+     * Streams {@code size} bytes of the channel APK carrying {@code channel}, starting at
+     * {@code offset}, into {@code out}. The stream is neither flushed nor closed.
+     *
+     * @throws IllegalArgumentException if the range is not within the channel APK
+     */
+    public void stream(ChannelModel channel, long offset, long size, OutputStream out)
+            throws IOException {
+        ChainedDataSource apk = getDataSource(channel);
+        if (out instanceof FileOutputStream) {
+            FileChannel target = ((FileOutputStream) out).getChannel();
+            if (target != null) {
+                apk.transferTo(offset, size, target);
+                return;
+            }
+        }
+        AsyncDataSink sink = DataSinks.newAsyncDataSink(DataSinks.asDataSink(out));
+        try {
+            apk.feed(offset, size, sink);
+        } catch (IOException | RuntimeException e) {
+            closeQuietly(sink);
+            throw e;
+        }
+        sink.close();
+    }
+
+    /**
+     * Streams {@code size} bytes of the channel APK carrying {@code channel}, starting at
+     * {@code offset}, into {@code out}.
+     *
+     * @throws IllegalArgumentException if the range is not within the channel APK
+     */
+    public void stream(ChannelModel channel, long offset, long size, WritableByteChannel out)
+            throws IOException {
+        getDataSource(channel).transferTo(offset, size, out);
+    }
+
+    /**
+     * Stops the writer thread of a sink whose stream already failed, without hiding that failure.
+     */
+    private static void closeQuietly(AsyncDataSink sink) {
+        try {
+            sink.close();
+        } catch (IOException | RuntimeException e) {
+            // the stream failed already, that failure is rethrown
+        }
+    }
+
+    @Override
+    public void close() {
+        if (mOwnsWriter) {
+            mWriter.close();
+        }
+    }
+}
@@ -4,27 +4,58 @@ import com.branch.v2.read.ChannelRead;
 import com.branch.v2.read.model.ChannelModel;
 import com.branch.v2.read.util.ApkUtils;
 import com.branch.v2.read.util.Log;
+import com.branch.v2.read.util.Pair;
 import com.branch.v2.read.util.StringUtil;
 import com.branch.v2.read.zip.ZipFormatException;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 public class JCommander {
 
-    // -r read channel 1, -w write channel 2
+    // -r read channel 1, -w write channel 2, -u rewrite channel in place 3, -p prepare template 4,
+    // -daemon channel server 5
     private int actionType = -1;
 
     //
     private String inputApkFile;
 
-    // -o
+    // -o, with -daemon the root of the output dirs of write requests
     private String outChannelDir;
 
     //-c
     private String channelFile;
 
+    // -n
+    private String channelLine;
+
+    // -t
+    private int workerCount = ChannelBatchWriter.getDefaultWorkerCount();
+
+    // -clone
+    private boolean cloneOutput;
+
+    // -patch
+    private boolean templateOutput;
+
+    // -verify
+    private boolean verifyOutput;
+
+    // -m
+    private String manifestFile;
+
+    // -port, -1 serves stdin
+    private int serverPort = -1;
+
+    // -s
+    private int templateSlotSize = ChannelBatchWriter.DEFAULT_TEMPLATE_SLOT_SIZE;
+
     // -help
 
     public void parseCommand(String[] commands) {
@@ -46,6 +77,20 @@ public class JCommander {
                     i++;
                     inputApkFile = commands[i];
                     break;
+                case "-u":
+                    actionType = 3;
+                    i++;
+                    inputApkFile = commands[i];
+                    break;
+                case "-p":
+                    actionType = 4;
+                    i++;
+                    inputApkFile = commands[i];
+                    break;
+                case "-n":
+                    i++;
+                    channelLine = commands[i];
+                    break;
                 case "-o":
                     i++;
                     outChannelDir = commands[i];
@@ -54,19 +99,52 @@ public class JCommander {
                     i++;
                     channelFile = commands[i];
                     break;
+                case "-t":
+                    i++;
+                    workerCount = Integer.parseInt(commands[i]);
+                    break;
+                case "-clone":
+                    cloneOutput = true;
+                    break;
+                case "-patch":
+                    templateOutput = true;
+                    break;
+                case "-verify":
+                    verifyOutput = true;
+                    break;
+                case "-m":
+                    i++;
+                    manifestFile = commands[i];
+                    break;
+                case "-daemon":
+                    actionType = 5;
+                    break;
+                case "-port":
+                    i++;
+                    serverPort = Integer.parseInt(commands[i]);
+                    break;
+                case "-s":
+                    i++;
+                    templateSlotSize = Integer.parseInt(commands[i]);
+                    break;
             }
 
         }
 
 
         checkCommander();
+
+        if (actionType == 5 && serverPort == -1) {
+            // stdout carries the responses
+            Log.setOutput(System.err);
+        }
     }
 
 
     private void checkCommander() {
 
         if (actionType == -1) {
-            throw new IllegalArgumentException("需要设置是读渠道(-r)还是写渠道(-w)");
+            throw new IllegalArgumentException("需要设置是读渠道(-r)、写渠道(-w)、改写渠道(-u)、生成模板(-p)还是服务模式(-daemon)");
         }
 
         switch (actionType) {
@@ -85,7 +163,37 @@ public class JCommander {
                 if (StringUtil.isEmpty(channelFile)) {
                     throw new IllegalArgumentException("需要设置渠道文件，-c (channel path)");
                 }
+                if (workerCount < 1) {
+                    throw new IllegalArgumentException("并发线程数需要大于0，-t (threads)");
+                }
 
+                break;
+            case 3:
+                if (StringUtil.isEmpty(inputApkFile)) {
+                    throw new IllegalArgumentException("需要设置改写渠道的apk文件，-u (apk path)");
+                }
+                if (StringUtil.isEmpty(channelLine)) {
+                    throw new IllegalArgumentException("需要设置新渠道，-n (channel)");
+                }
+                break;
+            case 4:
+                if (StringUtil.isEmpty(inputApkFile)) {
+                    throw new IllegalArgumentException("需要设置生成模板的apk文件，-p (apk path)");
+                }
+                if (StringUtil.isEmpty(outChannelDir)) {
+                    throw new IllegalArgumentException("需要设置模板apk文件路径，-o (template apk path)");
+                }
+                if (templateSlotSize < 2) {
+                    throw new IllegalArgumentException("渠道预留空间需要大于1字节，-s (slot size)");
+                }
+                break;
+            case 5:
+                if (serverPort < -1 || serverPort > 65535) {
+                    throw new IllegalArgumentException("端口号需要在0到65535之间，-port (port)");
+                }
+                if (workerCount < 1) {
+                    throw new IllegalArgumentException("并发请求数需要大于0，-t (threads)");
+                }
                 break;
         }
 
@@ -104,10 +212,37 @@ public class JCommander {
                 try {
                     long startTime = System.currentTimeMillis();
                     BufferedReader byteArrayInputStream = new BufferedReader(new FileReader(channelFile));
+                    ChannelBatchWriter writer = new ChannelBatchWriter(inputApkFile);
+                    writer.setCloneOutput(cloneOutput);
+                    writer.setTemplateOutput(templateOutput);
+                    writer.setVerifyOutput(verifyOutput);
+                    ChannelManifest manifest = null;
 
-                    String channelName = null;
-                    while ((channelName = byteArrayInputStream.readLine()) != null) {
-                        ChannelWrite.writeChannel(inputApkFile, outChannelDir, channelName);
+                    try {
+                        List<ChannelModel> channelNames = new ArrayList<>();
+                        String channelName = null;
+                        while ((channelName = byteArrayInputStream.readLine()) != null) {
+                            channelNames.add(ChannelWrite.parseChannelLine(channelName));
+                        }
+
+                        if (manifestFile != null) {
+                            manifest = ChannelManifest.open(
+                                    new File(manifestFile), new File(inputApkFile));
+                        }
+                        List<Pair<ChannelModel, Exception>> failures = writer.writeChannels(
+                                outChannelDir, channelNames, workerCount, manifest);
+                        for (Pair<ChannelModel, Exception> failure : failures) {
+                            Log.log("write channel failed: " + failure.getFirst() + " " + failure.getSecond());
+                        }
+                        Log.log("channels: " + channelNames.size() + " failed: " + failures.size()
+                                + (manifest != null ? " skipped: " + manifest.getSkippedCount() : "")
+                                + " threads: " + workerCount);
+                    } finally {
+                        if (manifest != null) {
+                            manifest.close();
+                        }
+                        writer.close();
+                        byteArrayInputStream.close();
                     }
                     Log.log("cost time: " + (System.currentTimeMillis() - startTime) / 1000 + "s");
                 } catch (IOException e) {
@@ -118,6 +253,59 @@ public class JCommander {
                     e.printStackTrace();
                 }
 
+                break;
+            case 3:
+                try {
+                    long startTime = System.currentTimeMillis();
+                    ChannelRewrite.rewriteChannel(
+                            inputApkFile, ChannelWrite.parseChannelLine(channelLine));
+                    Log.log("cost time: " + (System.currentTimeMillis() - startTime) + "ms");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (ZipFormatException e) {
+                    e.printStackTrace();
+                } catch (ApkUtils.SignatureNotFoundException e) {
+                    e.printStackTrace();
+                }
+                break;
+            case 5:
+                final ChannelServer server = new ChannelServer(workerCount);
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        Log.log("latency: " + server.getLatencyHistogram());
+                    }
+                });
+                try {
+                    if (outChannelDir != null) {
+                        server.setOutputRoot(new File(outChannelDir));
+                    }
+                    if (serverPort == -1) {
+                        // stdout's channel, so streamed channel APKs skip the copies of System.out
+                        server.serve(System.in, new FileOutputStream(FileDescriptor.out));
+                    } else {
+                        server.listen(serverPort);
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    try {
+                        server.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+                break;
+            case 4:
+                try {
+                    ChannelWrite.prepareTemplate(inputApkFile, outChannelDir, templateSlotSize);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (ZipFormatException e) {
+                    e.printStackTrace();
+                } catch (ApkUtils.SignatureNotFoundException e) {
+                    e.printStackTrace();
+                }
                 break;
         }
 
@@ -0,0 +1,101 @@
+package com.branch.v2;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of request latencies in power of two buckets of microseconds: bucket {@code i}
+ * counts the latencies of at least {@code 2^(i-1)} and less than {@code 2^i} microseconds,
+ * bucket 0 those under one microsecond. Percentiles are reported as the upper bound of their
+ * bucket, so they are at most twice the exact value.
+ * <p>
+ * <p>Recording is lock-free, instances are safe for use by multiple threads.
+ */
+public class LatencyHistogram {
+
+    private static final int BUCKET_COUNT = 64;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mTotalMicros = new AtomicLong();
+    private final AtomicLong mMaxMicros = new AtomicLong();
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        mBuckets.incrementAndGet(getBucket(micros));
+        mCount.incrementAndGet();
+        mTotalMicros.addAndGet(micros);
+        long max;
+        do {
+            max = mMaxMicros.get();
+        } while (micros > max && !mMaxMicros.compareAndSet(max, micros));
+    }
+
+    public long getCount() {
+        return mCount.get();
+    }
+
+    public long getMaxMicros() {
+        return mMaxMicros.get();
+    }
+
+    /**
+     * Returns the upper bound (in microseconds) of the bucket holding the {@code percentile}
+     * (0 to 100) of the recorded latencies, 0 if none were recorded.
+     */
+    public long getPercentileMicros(double percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= Math.max(rank, 1)) {
+                return Math.min(getUpperBound(i), mMaxMicros.get());
+            }
+        }
+        return mMaxMicros.get();
+    }
+
+    private static int getBucket(long micros) {
+        return 64 - Long.numberOfLeadingZeros(micros);
+    }
+
+    private static long getUpperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Returns the count, mean, percentiles and maximum, followed by the non-empty buckets as
+     * {@code <upper bound in us>:<count>}.
+     */
+    @Override
+    public String toString() {
+        long count = mCount.get();
+        StringBuilder result = new StringBuilder()
+                .append("count=").append(count)
+                .append(" mean=").append(count == 0 ? 0 : mTotalMicros.get() / count).append("us")
+                .append(" p50=").append(getPercentileMicros(50)).append("us")
+                .append(" p90=").append(getPercentileMicros(90)).append("us")
+                .append(" p99=").append(getPercentileMicros(99)).append("us")
+                .append(" max=").append(mMaxMicros.get()).append("us")
+                .append(" buckets=");
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long bucket = mBuckets.get(i);
+            if (bucket == 0) {
+                continue;
+            }
+            if (!first) {
+                result.append(',');
+            }
+            first = false;
+            result.append(getUpperBound(i)).append(':').append(bucket);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,233 @@
+package com.branch.v2;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkSignatureVerifier;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelBatchWriterTest {
+
+    private File mOutputDir;
+
+    @Before
+    public void setUp() throws IOException {
+        mOutputDir = Files.createTempDirectory("channel-write-test-").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        delete(mOutputDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    static boolean verify(File apk) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            return new ApkSignatureVerifier().verify(DataSources.asDataSource(file));
+        } finally {
+            file.close();
+        }
+    }
+
+    /**
+     * Asserts that both APKs hold the same ZIP entries, as read by {@link ZipFile}.
+     */
+    static void assertSameEntries(File expectedApk, File actualApk) throws IOException {
+        ZipFile expected = new ZipFile(expectedApk);
+        ZipFile actual = new ZipFile(actualApk);
+        try {
+            assertEquals(expected.size(), actual.size());
+            Enumeration<? extends ZipEntry> entries = expected.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                ZipEntry actualEntry = actual.getEntry(entry.getName());
+                assertNotNull(entry.getName(), actualEntry);
+                assertArrayEquals(entry.getName(),
+                        readFully(expected, entry), readFully(actual, actualEntry));
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    private static byte[] readFully(ZipFile zipFile, ZipEntry entry) throws IOException {
+        InputStream in = zipFile.getInputStream(entry);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buf = new byte[8192];
+            int read;
+            while ((read = in.read(buf)) != -1) {
+                out.write(buf, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private File writeChannel(File baseApk, String channelName) throws Exception {
+        ChannelBatchWriter writer = new ChannelBatchWriter(baseApk.getPath());
+        try {
+            return writer.writeChannel(mOutputDir.getPath() + File.separator, channelName);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test
+    public void writesChannelApk() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setCompressEntries(true).setV2Digests(true).generate();
+        File channelApk = writeChannel(baseApk, "huawei");
+
+        assertEquals("huawei", ChannelRead.getChannel(channelApk.getPath()).getChannelName());
+        assertSameEntries(baseApk, channelApk);
+        assertTrue(verify(channelApk));
+    }
+
+    // The v2 digests of a ZIP64 APK cover the ZIP64 records, whose offsets move with the grown APK
+    // Signing Block: Android does not verify v2 signatures of ZIP64 APKs, see ApkLayout. The ZIP
+    // structure is checked instead.
+
+    @Test
+    public void writesZip64ChannelApk() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setZip64(true).generate();
+        File channelApk = writeChannel(baseApk, "huawei");
+
+        assertEquals("huawei", ChannelRead.getChannel(channelApk.getPath()).getChannelName());
+        assertSameEntries(baseApk, channelApk);
+    }
+
+    @Test
+    public void writesZip64ChannelApkWithComment() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setZip64(true).setCommentLength(1000).generate();
+        File channelApk = writeChannel(baseApk, "huawei");
+
+        assertEquals("huawei", ChannelRead.getChannel(channelApk.getPath()).getChannelName());
+        assertSameEntries(baseApk, channelApk);
+    }
+
+    @Test
+    public void patchesTemplate() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setV2Digests(true).generate();
+        File templateApk = new File(mOutputDir, "template.apk");
+        ChannelBatchWriter writer = new ChannelBatchWriter(baseApk.getPath());
+        try {
+            writer.writeTemplate(templateApk.getPath(), 128);
+        } finally {
+            writer.close();
+        }
+
+        File channelApk = writeTemplateChannel(templateApk, "huawei");
+        assertEquals(templateApk.length(), channelApk.length());
+        assertEquals("huawei", ChannelRead.getChannel(channelApk.getPath()).getChannelName());
+        assertTrue(verify(channelApk));
+    }
+
+    @Test
+    public void rejectsChannelApkAsTemplate() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setV2Digests(true).generate();
+        File channelApk = writeChannel(baseApk, "huawei");
+
+        try {
+            writeTemplateChannel(channelApk, "xiaomi");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Not a channel template"));
+        }
+    }
+
+    @Test
+    public void writesChannelsOnWorkers() throws Exception {
+        File baseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024)
+                .setV2Digests(true).generate();
+        List<ChannelModel> channels = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            channels.add(new ChannelModel("channel" + i));
+        }
+        // a duplicate of the first channel, and a channel whose output path is a directory
+        channels.add(new ChannelModel("channel0"));
+        ChannelModel failing = new ChannelModel("failing");
+        channels.add(5, failing);
+
+        File sequentialDir = new File(mOutputDir, "sequential");
+        assertTrue(sequentialDir.mkdir());
+        String sequentialPath = sequentialDir.getPath() + File.separator;
+        String parallelPath = mOutputDir.getPath() + File.separator;
+        List<Pair<ChannelModel, Exception>> failures;
+        ChannelBatchWriter writer = new ChannelBatchWriter(baseApk.getPath());
+        try {
+            assertTrue(writer.getChannelApkFile(parallelPath, failing).mkdir());
+            failures = writer.writeChannels(parallelPath, channels, 4);
+            for (int i = 0; i < 12; i++) {
+                writer.writeChannel(sequentialPath, "channel" + i);
+            }
+        } finally {
+            writer.close();
+        }
+
+        assertEquals(2, failures.size());
+        assertSame(failing, failures.get(0).getFirst());
+        assertTrue(failures.get(0).getSecond() instanceof IOException);
+        assertSame(channels.get(channels.size() - 1), failures.get(1).getFirst());
+        assertEquals("duplicate channel", failures.get(1).getSecond().getMessage());
+
+        File[] sequentialApks = sequentialDir.listFiles();
+        assertEquals(12, sequentialApks.length);
+        for (File sequentialApk : sequentialApks) {
+            File parallelApk = new File(mOutputDir, sequentialApk.getName());
+            assertArrayEquals(sequentialApk.getName(),
+                    Files.readAllBytes(sequentialApk.toPath()),
+                    Files.readAllBytes(parallelApk.toPath()));
+            assertTrue(verify(parallelApk));
+        }
+    }
+
+    private File writeTemplateChannel(File templateApk, String channelName) throws Exception {
+        ChannelBatchWriter writer = new ChannelBatchWriter(templateApk.getPath());
+        try {
+            writer.setTemplateOutput(true);
+            return writer.writeChannel(mOutputDir.getPath() + File.separator, channelName);
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.branch.v2;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.DataSources;
+import com.branch.v2.read.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelManifestTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final List<ChannelModel> CHANNELS = Arrays.asList(
+            new ChannelModel("huawei"), new ChannelModel("xiaomi"), new ChannelModel("oppo"));
+
+    private File mWorkDir;
+    private File mBaseApk;
+    private File mManifestFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mWorkDir = Files.createTempDirectory("channel-manifest-test-").toFile();
+        mBaseApk = new File(mWorkDir, "base.apk");
+        newGenerator().generate(mBaseApk);
+        mManifestFile = new File(mWorkDir, "manifest.txt");
+    }
+
+    @After
+    public void tearDown() {
+        delete(mWorkDir);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static ApkGenerator newGenerator() {
+        return new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024).setV2Digests(true);
+    }
+
+    private File newOutputDir(String name) {
+        File outputDir = new File(mWorkDir, name);
+        assertTrue(outputDir.mkdir());
+        return outputDir;
+    }
+
+    /**
+     * Writes {@link #CHANNELS} into {@code outputDir} with the manifest, returning the number of
+     * channels skipped.
+     */
+    private int writeChannels(File outputDir) throws Exception {
+        ChannelBatchWriter writer = new ChannelBatchWriter(mBaseApk.getPath());
+        ChannelManifest manifest = ChannelManifest.open(mManifestFile, mBaseApk);
+        try {
+            List<Pair<ChannelModel, Exception>> failures = writer.writeChannels(
+                    outputDir.getPath() + File.separator, CHANNELS, 2, manifest);
+            assertTrue(failures.toString(), failures.isEmpty());
+            return manifest.getSkippedCount();
+        } finally {
+            manifest.close();
+            writer.close();
+        }
+    }
+
+    private File getOutput(File outputDir, ChannelModel channelModel) throws Exception {
+        ChannelBatchWriter writer = new ChannelBatchWriter(mBaseApk.getPath());
+        try {
+            return writer.getChannelApkFile(outputDir.getPath() + File.separator, channelModel);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void assertChannels(File outputDir) throws Exception {
+        for (ChannelModel channelModel : CHANNELS) {
+            File output = getOutput(outputDir, channelModel);
+            assertEquals(channelModel.getChannelName(),
+                    ChannelRead.getChannel(output.getPath()).getChannelName());
+        }
+    }
+
+    @Test
+    public void skipsValidOutputs() throws Exception {
+        File outputDir = newOutputDir("out");
+        assertEquals(0, writeChannels(outputDir));
+
+        assertEquals(CHANNELS.size(), writeChannels(outputDir));
+        assertChannels(outputDir);
+    }
+
+    @Test
+    public void rewritesInvalidOutputs() throws Exception {
+        File outputDir = newOutputDir("out");
+        writeChannels(outputDir);
+
+        // deleted
+        assertTrue(getOutput(outputDir, CHANNELS.get(0)).delete());
+        // truncated
+        RandomAccessFile truncated = new RandomAccessFile(getOutput(outputDir, CHANNELS.get(1)),
+                "rw");
+        try {
+            truncated.setLength(truncated.length() - 1);
+        } finally {
+            truncated.close();
+        }
+        // same size, another channel
+        File patchedApk = getOutput(outputDir, CHANNELS.get(2));
+        long size = patchedApk.length();
+        RandomAccessFile patched = new RandomAccessFile(patchedApk, "rw");
+        try {
+            ApkLayout layout = ApkLayout.parse(DataSources.asDataSource(patched));
+            patched.seek(layout.getChannelValueOffset());
+            patched.write("{\"channelName\":\"vivo\"}".getBytes(UTF_8));
+        } finally {
+            patched.close();
+        }
+        assertEquals(size, patchedApk.length());
+        assertEquals("vivo", ChannelRead.getChannel(patchedApk.getPath()).getChannelName());
+
+        assertEquals(0, writeChannels(outputDir));
+        assertChannels(outputDir);
+        assertEquals(CHANNELS.size(), writeChannels(outputDir));
+    }
+
+    @Test
+    public void ignoresTornLastRecord() throws Exception {
+        File outputDir = newOutputDir("out");
+        writeChannels(outputDir);
+
+        // cut the last record short, as a process killed while appending it
+        RandomAccessFile manifest = new RandomAccessFile(mManifestFile, "rw");
+        try {
+            manifest.setLength(manifest.length() - 10);
+        } finally {
+            manifest.close();
+        }
+
+        assertEquals(CHANNELS.size() - 1, writeChannels(outputDir));
+        assertChannels(outputDir);
+        // the record appended after the torn line is read back
+        assertEquals(CHANNELS.size(), writeChannels(outputDir));
+    }
+
+    @Test
+    public void discardsManifestOfAnotherBase() throws Exception {
+        File outputDir = newOutputDir("out");
+        writeChannels(outputDir);
+
+        newGenerator().setSeed(7).generate(mBaseApk);
+
+        assertEquals(0, writeChannels(outputDir));
+        assertChannels(outputDir);
+        List<String> lines = Files.readAllLines(mManifestFile.toPath(), UTF_8);
+        assertEquals("base\t" + ChannelManifest.hashFile(mBaseApk) + '\t' + mBaseApk.length(),
+                lines.get(0));
+        assertEquals(1 + CHANNELS.size(), lines.size());
+    }
+
+    @Test
+    public void rewritesOutputsOfAnotherDirectory() throws Exception {
+        File outputDir = newOutputDir("out");
+        writeChannels(outputDir);
+
+        File otherOutputDir = newOutputDir("other");
+        assertEquals(0, writeChannels(otherOutputDir));
+        assertChannels(otherOutputDir);
+        assertNotEquals(getOutput(outputDir, CHANNELS.get(0)).getAbsoluteFile(),
+                getOutput(otherOutputDir, CHANNELS.get(0)).getAbsoluteFile());
+
+        // the same directory through another path
+        File sameOutputDir = new File(otherOutputDir.getPath() + File.separator + ".");
+        assertEquals(CHANNELS.size(), writeChannels(sameOutputDir));
+    }
+}
@@ -0,0 +1,156 @@
+package com.branch.v2;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import com.branch.v2.read.model.ChannelModel;
+import com.branch.v2.read.util.ApkUtils;
+import com.branch.v2.read.util.DataSources;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import static com.branch.v2.ChannelBatchWriterTest.assertSameEntries;
+import static com.branch.v2.ChannelBatchWriterTest.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ChannelRewriteTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static ApkGenerator newGenerator() {
+        return new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024).setV2Digests(true);
+    }
+
+    private static byte[] newSlot(String channel, int slotSize) {
+        return ApkLayout.newChannelSlot(channel.getBytes(UTF_8), slotSize).array();
+    }
+
+    private static File copyOf(File apk) throws Exception {
+        File copy = File.createTempFile("channel-rewrite-test-", ".apk");
+        copy.deleteOnExit();
+        Files.copy(apk.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return copy;
+    }
+
+    private static int getChannelValueSize(File apk) throws Exception {
+        RandomAccessFile file = new RandomAccessFile(apk, "r");
+        try {
+            return ApkLayout.parse(DataSources.asDataSource(file)).getChannelValueSize();
+        } finally {
+            file.close();
+        }
+    }
+
+    private static ChannelModel readChannel(File apk) {
+        return ChannelRead.getChannel(apk.getPath());
+    }
+
+    @Test
+    public void rewritesChannelInPlace() throws Exception {
+        File apk = newGenerator()
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID,
+                        newSlot("{\"channelName\":\"placeholder\"}", 64))
+                .generate();
+        long size = apk.length();
+        ChannelModel channelModel = ChannelWrite.parseChannelLine("huawei|campaign=spring");
+
+        assertTrue(ChannelRewrite.rewriteChannel(apk.getPath(), channelModel));
+        assertEquals(size, apk.length());
+        assertEquals(64, getChannelValueSize(apk));
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        assertEquals("spring", readChannel(apk).getCampaign());
+        assertTrue(verify(apk));
+    }
+
+    @Test
+    public void rebuildsBlockForLargerChannel() throws Exception {
+        File apk = newGenerator()
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID, newSlot("{}", 2))
+                .generate();
+        File base = copyOf(apk);
+        long size = apk.length();
+
+        assertFalse(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("huawei")));
+        assertEquals(size - 2 + ChannelRewrite.CHANNEL_SLOT_ALIGNMENT, apk.length());
+        assertEquals(ChannelRewrite.CHANNEL_SLOT_ALIGNMENT, getChannelValueSize(apk));
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        assertSameEntries(base, apk);
+        assertTrue(verify(apk));
+
+        // the aligned slot takes the next channel in place
+        assertTrue(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("xiaomi")));
+        assertEquals("xiaomi", readChannel(apk).getChannelName());
+        assertTrue(verify(apk));
+    }
+
+    @Test
+    public void addsChannelToApkWithoutChannel() throws Exception {
+        File apk = newGenerator().generate();
+        long size = apk.length();
+
+        assertFalse(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("huawei")));
+        assertEquals(size + ApkLayout.getChannelPairSize(ChannelRewrite.CHANNEL_SLOT_ALIGNMENT),
+                apk.length());
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        assertTrue(verify(apk));
+    }
+
+    @Test
+    public void collapsesDuplicateChannelPairs() throws Exception {
+        // the last pair wins, the larger stale one is not reused
+        File apk = newGenerator()
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID,
+                        newSlot("{\"channelName\":\"stale\"}", 1000))
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID, newSlot("{}", 2))
+                .generate();
+        long size = apk.length();
+
+        assertFalse(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("huawei")));
+        // both pairs are replaced by a single one, the block shrinks
+        assertEquals(size - ApkLayout.getChannelPairSize(2) - ApkLayout.getChannelPairSize(1000)
+                        + ApkLayout.getChannelPairSize(ChannelRewrite.CHANNEL_SLOT_ALIGNMENT),
+                apk.length());
+        assertEquals(ChannelRewrite.CHANNEL_SLOT_ALIGNMENT, getChannelValueSize(apk));
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        assertTrue(verify(apk));
+    }
+
+    @Test
+    public void rewritesZip64ChannelInPlace() throws Exception {
+        File apk = newGenerator()
+                .setZip64(true)
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID,
+                        newSlot("{\"channelName\":\"placeholder\"}", 64))
+                .generate();
+        long size = apk.length();
+
+        assertTrue(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("huawei")));
+        assertEquals(size, apk.length());
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        // nothing moved, the digests still match
+        assertTrue(verify(apk));
+    }
+
+    @Test
+    public void rebuildsZip64Block() throws Exception {
+        File apk = newGenerator()
+                .setZip64(true)
+                .setCommentLength(100)
+                .addPair(ApkUtils.APK_SIGNATURE_SCHEME_V2_CHANNEL_ID, newSlot("{}", 2))
+                .generate();
+        File base = copyOf(apk);
+        long size = apk.length();
+
+        assertFalse(ChannelRewrite.rewriteChannel(apk.getPath(), new ChannelModel("huawei")));
+        assertEquals(size - 2 + ChannelRewrite.CHANNEL_SLOT_ALIGNMENT, apk.length());
+        assertEquals("huawei", readChannel(apk).getChannelName());
+        // the v2 digests cover the moved ZIP64 records, see ChannelBatchWriterTest
+        assertSameEntries(base, apk);
+    }
+}
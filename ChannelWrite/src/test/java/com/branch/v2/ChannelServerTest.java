@@ -0,0 +1,181 @@
+package com.branch.v2;
+
+import com.branch.v2.read.ApkGenerator;
+import com.branch.v2.read.ChannelRead;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+public class ChannelServerTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File mBaseApk;
+    private File mOutputRoot;
+    private ChannelServer mServer;
+
+    @Before
+    public void setUp() throws IOException {
+        mBaseApk = new ApkGenerator().setEntryCount(5).setTotalSize(256 * 1024).generate();
+        mOutputRoot = Files.createTempDirectory("channel-server-test-").toFile();
+        mServer = new ChannelServer(1);
+        mServer.setOutputRoot(mOutputRoot);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        mServer.close();
+        delete(mOutputRoot);
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private String serve(String... requests) throws IOException {
+        StringBuilder in = new StringBuilder();
+        for (String request : requests) {
+            in.append(request).append('\n');
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        mServer.serve(new ByteArrayInputStream(in.toString().getBytes(UTF_8)), out);
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private String write(String outputDir, String channel) throws IOException {
+        return serve("write\t" + mBaseApk.getPath() + "\t" + outputDir + "\t" + channel);
+    }
+
+    @Test
+    public void writesWithinOutputRoot() throws IOException {
+        new File(mOutputRoot, "huawei").mkdir();
+
+        String response = write("huawei", "huawei|campaign=spring");
+        assertTrue(response, response.startsWith("ok\t"));
+        String output = response.split("\t")[1];
+        assertTrue(output, output.startsWith(new File(mOutputRoot, "huawei").getCanonicalPath()));
+        assertEquals("spring", ChannelRead.getChannel(output).getCampaign());
+
+        response = write(mOutputRoot.getPath(), "xiaomi");
+        assertTrue(response, response.startsWith("ok\t"));
+    }
+
+    @Test
+    public void rejectsOutputDirOutsideRoot() throws IOException {
+        assertTrue(write("..", "huawei").startsWith("error\toutput dir not within"));
+        assertTrue(write("huawei/../..", "huawei").startsWith("error\toutput dir not within"));
+        assertTrue(write(mOutputRoot.getParent(), "huawei").startsWith("error\t"));
+        assertEquals(0, mOutputRoot.list().length);
+    }
+
+    @Test
+    public void rejectsChannelNameWithPathSeparator() throws IOException {
+        assertTrue(write(".", "../../x").startsWith("error\tChannel name must not hold"));
+        assertTrue(write(".", "a\\b").startsWith("error\tChannel name must not hold"));
+        assertEquals(0, mOutputRoot.list().length);
+    }
+
+    @Test(timeout = 30000)
+    public void slowStreamDoesNotHoldUpOtherRequests() throws Exception {
+        // a client reading nothing of the stream, with the server's only permit
+        final PipedInputStream slowClient = new PipedInputStream(1024);
+        final PipedOutputStream slowClientOut = new PipedOutputStream(slowClient);
+        Thread streaming = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mServer.serve(new ByteArrayInputStream(
+                            ("stream\t" + mBaseApk.getPath() + "\thuawei\n").getBytes(UTF_8)),
+                            slowClientOut);
+                } catch (IOException e) {
+                    // the client went away
+                }
+            }
+        };
+        streaming.start();
+        int headerEnd;
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        while ((headerEnd = slowClient.read()) != '\n') {
+            header.write(headerEnd);
+        }
+        assertTrue(header.toString("UTF-8").startsWith("ok\t"));
+
+        String response = write(".", "xiaomi");
+        assertTrue(response, response.startsWith("ok\t"));
+
+        slowClient.close();
+        streaming.join();
+    }
+
+    @Test(timeout = 30000)
+    public void slowParseDoesNotHoldUpOtherApks() throws Exception {
+        // opening a FIFO blocks until a writer opens it: the parse of this base APK hangs
+        final File fifo = new File(mOutputRoot, "stuck.apk");
+        Process mkfifo = new ProcessBuilder("mkfifo", fifo.getPath()).start();
+        assumeTrue(mkfifo.waitFor() == 0);
+
+        final ChannelServer server = new ChannelServer(2);
+        try {
+            final ByteArrayOutputStream stuckResponse = new ByteArrayOutputStream();
+            Thread stuck = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        server.serve(new ByteArrayInputStream(
+                                ("stream\t" + fifo.getPath() + "\thuawei\n").getBytes(UTF_8)),
+                                stuckResponse);
+                    } catch (IOException e) {
+                        // reported by the response
+                    }
+                }
+            };
+            stuck.start();
+            while (!isParsing(stuck)) {
+                Thread.sleep(1);
+            }
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            server.serve(new ByteArrayInputStream(
+                    ("stream\t" + mBaseApk.getPath() + "\txiaomi\n").getBytes(UTF_8)), out);
+            assertTrue(out.toString("UTF-8").startsWith("ok\t"));
+            assertTrue(stuck.isAlive());
+
+            // an empty file, which is no APK
+            new FileOutputStream(fifo).close();
+            stuck.join();
+            assertTrue(stuckResponse.toString("UTF-8").startsWith("error\t"));
+        } finally {
+            server.close();
+        }
+    }
+
+    private static boolean isParsing(Thread thread) {
+        for (StackTraceElement element : thread.getStackTrace()) {
+            if (element.getClassName().equals(ChannelBatchWriter.class.getName())
+                    && element.getMethodName().equals("<init>")) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
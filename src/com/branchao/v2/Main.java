@@ -10,16 +10,15 @@ public class Main {
     public static void main(String[] args) {
         // write your code here
 
-        Log.log(Arrays.toString(args));
-
         if (args == null || args.length == 0) {
 
             return;
         }
-//        Log.log(Arrays.toString(args));
 
         JCommander commander = new JCommander();
         commander.parseCommand(args);
+        // after parsing: the channel server logs to stderr when stdout carries its responses
+        Log.log(Arrays.toString(args));
         commander.doAction();
 
     }